@@ -0,0 +1,118 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2Empty;
+import com.lausdahl.examples.Service.Fmi2InstantiateRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+
+/**
+ * Measures a complete step of a loaded model, including the input push, the interpreter and the output sync. The
+ * resources folder of the model is given with {@code -Dcrescendo.bench.resources=<folder>}, the benchmarks profile
+ * passes the variable transfer test model of the interpreter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class DoStepBenchmark
+{
+	static final String RESOURCES = "crescendo.bench.resources";
+
+	static final double STEP_SIZE = 0.001;
+
+	CrescendoFmu fmu;
+	double time = 0;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		String location = System.getProperty(RESOURCES);
+		if (location == null)
+		{
+			throw new IllegalStateException("No model to step, set -D" + RESOURCES
+					+ "=<folder> to the resources folder of a model");
+		}
+		File resources = new File(location.replace('/', File.separatorChar));
+		if (!new File(resources, "modelDescription.xml").isFile())
+		{
+			throw new IllegalStateException("No modelDescription.xml in " + resources.getAbsolutePath());
+		}
+
+		fmu = new CrescendoFmu("do-step-benchmark")
+		{
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		Fmi2Empty empty = Fmi2Empty.newBuilder().build();
+		check(fmu.Instantiate(Fmi2InstantiateRequest.newBuilder().setFmuResourceLocation(resources.getAbsoluteFile().toURI().toString()).build()), "Instantiate");
+		check(fmu.EnterInitializationMode(empty), "EnterInitializationMode");
+		check(fmu.ExitInitializationMode(empty), "ExitInitializationMode");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		Fmi2Empty empty = Fmi2Empty.newBuilder().build();
+		fmu.Terminate(empty);
+		fmu.FreeInstantiate(empty);
+	}
+
+	@Benchmark
+	public Fmi2StatusReply doStep()
+	{
+		Fmi2StatusReply reply = fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(time).setCommunicationStepSize(STEP_SIZE).build());
+		time += STEP_SIZE;
+		return reply;
+	}
+
+	private static void check(Fmi2StatusReply reply, String call)
+	{
+		if (reply.getStatus() != Fmi2StatusReply.Status.Ok)
+		{
+			throw new IllegalStateException(call + " failed with status " + reply.getStatus());
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lausdahl.examples.Service.Fmi2GetRealReply;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+
+/**
+ * Measures the Get and Set calls of an instantiated FMU on the synthetic model, through the protobuf messages and the
+ * bulk buffers. The model is not loaded, so only the call and cache overhead is measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class FmuCallBenchmark
+{
+	@Param({ "10", "100", "1000" })
+	int ports;
+
+	CrescendoFmu fmu;
+
+	Fmi2GetRequest getOutputs;
+	Fmi2SetRealRequest setInputs;
+
+	ByteBuffer outputRefs;
+	ByteBuffer inputRefs;
+	ByteBuffer values;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		fmu = new CrescendoFmu("fmu-call-benchmark")
+		{
+
+			@Override
+			public void close()
+			{
+			}
+		};
+		fmu.state = new StateCache(SyntheticModel.write(ports));
+		fmu.protocolState = CrescendoFmu.CrescendoStateType.Instantiated;
+
+		Fmi2GetRequest.Builder get = Fmi2GetRequest.newBuilder();
+		Fmi2SetRealRequest.Builder set = Fmi2SetRealRequest.newBuilder();
+		outputRefs = ByteBuffer.allocateDirect(ports * 4).order(ByteOrder.LITTLE_ENDIAN);
+		inputRefs = ByteBuffer.allocateDirect(ports * 4).order(ByteOrder.LITTLE_ENDIAN);
+		values = ByteBuffer.allocateDirect(ports * 8).order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int i = 0; i < ports; i++)
+		{
+			int input = SyntheticModel.firstInput(ports) + i;
+			int output = SyntheticModel.firstOutput(ports) + i;
+
+			get.addValueReference(output);
+			set.addValueReference(input).addValues(i);
+			outputRefs.putInt(output);
+			inputRefs.putInt(input);
+			values.putDouble(i);
+		}
+		getOutputs = get.build();
+		setInputs = set.build();
+		outputRefs.flip();
+		inputRefs.flip();
+		values.flip();
+	}
+
+	@Benchmark
+	public Fmi2GetRealReply getReal()
+	{
+		return fmu.GetReal(getOutputs);
+	}
+
+	@Benchmark
+	public Fmi2StatusReply setReal()
+	{
+		return fmu.SetReal(setInputs);
+	}
+
+	@Benchmark
+	public Fmi2StatusReply getRealBulk()
+	{
+		outputRefs.rewind();
+		values.clear();
+		return fmu.GetRealBulk(outputRefs, values);
+	}
+
+	@Benchmark
+	public Fmi2StatusReply setRealBulk()
+	{
+		inputRefs.rewind();
+		values.rewind();
+		return fmu.SetRealBulk(inputRefs, values);
+	}
+}
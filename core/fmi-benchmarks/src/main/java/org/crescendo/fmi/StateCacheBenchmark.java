@@ -0,0 +1,118 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.overture.interpreter.runtime.ValueException;
+import org.overture.interpreter.values.NumericValue;
+import org.overture.interpreter.values.Value;
+
+/**
+ * Measures the cache work done around every step: building the cache from the model description, pushing the inputs
+ * to the interpreter with and without changes, and writing the outputs back
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class StateCacheBenchmark
+{
+	@Param({ "10", "100", "1000" })
+	int ports;
+
+	File modelDescription;
+	StateCache state;
+
+	/**
+	 * the outputs of a step, indexed by value reference
+	 */
+	Value[] outputs;
+	double time = 0;
+
+	@Setup
+	public void setup() throws IOException, ValueException
+	{
+		modelDescription = SyntheticModel.write(ports);
+		state = new StateCache(modelDescription);
+
+		outputs = new Value[SyntheticModel.firstOutput(ports) + ports];
+		for (int i = 0; i < ports; i++)
+		{
+			outputs[SyntheticModel.firstOutput(ports) + i] = NumericValue.valueOf(i * 0.5, null);
+		}
+		state.collectInputsFromCache();
+	}
+
+	@Benchmark
+	public StateCache construct() throws IOException
+	{
+		return new StateCache(modelDescription);
+	}
+
+	/**
+	 * every input changed since the last push
+	 */
+	@Benchmark
+	public List<NamedValue> collectChanged() throws ValueException
+	{
+		time += 1;
+		int first = SyntheticModel.firstInput(ports);
+		for (int i = 0; i < ports; i++)
+		{
+			state.reals[first + i] = time + i;
+		}
+		return state.collectInputsFromCache();
+	}
+
+	/**
+	 * no input changed since the last push
+	 */
+	@Benchmark
+	public List<NamedValue> collectUnchanged() throws ValueException
+	{
+		return state.collectInputsFromCache();
+	}
+
+	@Benchmark
+	public double[] syncOutputs() throws ValueException
+	{
+		state.syncOutputsToCache(outputs);
+		return state.reals;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes a model description with a given number of real inputs, outputs and parameters, used to measure how the
+ * cache and the FMI calls scale with the number of ports. The value references are laid out as parameters
+ * {@code [0, n)}, inputs {@code [n, 2n)} and outputs {@code [2n, 3n)}.
+ */
+final class SyntheticModel
+{
+	private SyntheticModel()
+	{
+	}
+
+	/**
+	 * @return the first value reference of the inputs
+	 */
+	static int firstInput(int ports)
+	{
+		return ports;
+	}
+
+	/**
+	 * @return the first value reference of the outputs
+	 */
+	static int firstOutput(int ports)
+	{
+		return 2 * ports;
+	}
+
+	/**
+	 * Writes the model description to a temporary file, deleted when the VM exits
+	 * 
+	 * @param ports
+	 *            the number of inputs, outputs and parameters
+	 * @return the modelDescription.xml
+	 * @throws IOException
+	 */
+	static File write(int ports) throws IOException
+	{
+		File file = File.createTempFile("crescendo-bench-" + ports + "-", ".xml");
+		file.deleteOnExit();
+
+		try (PrintWriter out = new PrintWriter(file, "UTF-8"))
+		{
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<fmiModelDescription fmiVersion=\"2.0\" modelName=\"synthetic\" guid=\"{synthetic-" + ports
+					+ "}\">");
+			out.println("\t<VendorAnnotations>");
+			out.println("\t\t<Tool name=\"Overture\">");
+			out.println("\t\t\t<Overture>");
+			for (int i = 0; i < ports; i++)
+			{
+				link(out, i, "System.parameters.p" + i);
+				link(out, firstInput(ports) + i, "System.inputs.u" + i);
+				link(out, firstOutput(ports) + i, "System.outputs.y" + i);
+			}
+			out.println("\t\t\t</Overture>");
+			out.println("\t\t</Tool>");
+			out.println("\t</VendorAnnotations>");
+			out.println("\t<ModelVariables>");
+			for (int i = 0; i < ports; i++)
+			{
+				variable(out, i, "p" + i, "parameter");
+				variable(out, firstInput(ports) + i, "u" + i, "input");
+				variable(out, firstOutput(ports) + i, "y" + i, "output");
+			}
+			out.println("\t</ModelVariables>");
+			out.println("</fmiModelDescription>");
+		}
+		return file;
+	}
+
+	private static void link(PrintWriter out, int valueReference, String name)
+	{
+		out.println("\t\t\t\t<link valueReference=\"" + valueReference + "\" name=\"" + name + "\" />");
+	}
+
+	private static void variable(PrintWriter out, int valueReference, String name,
+			String causality)
+	{
+		out.println("\t\t<ScalarVariable name=\"" + name + "\" valueReference=\""
+				+ valueReference + "\" causality=\"" + causality + "\">");
+		out.println("\t\t\t<Real start=\"0\" />");
+		out.println("\t\t</ScalarVariable>");
+	}
+}
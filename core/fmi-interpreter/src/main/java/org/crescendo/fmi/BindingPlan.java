@@ -0,0 +1,117 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.destecs.core.vdmlink.LinkInfo;
+import org.destecs.core.vdmlink.Links;
+
+/**
+ * Dense, value reference indexed view of the {@link Links}. The plan is compiled once when the {@link StateCache} is
+ * created so the per step input and output passes can run as plain array loops instead of walking the String keyed
+ * link maps.
+ */
+final class BindingPlan
+{
+	/**
+	 * The bound ports of one causality. Entry {@code i} of the three arrays describes the same port
+	 */
+	static final class Ports
+	{
+		/**
+		 * the value references
+		 */
+		final int[] refs;
+		/**
+		 * the type tags
+		 */
+		final ExtendedLinkInfo.Type[] types;
+		/**
+		 * the link names as used by the interpreter
+		 */
+		final String[] names;
+
+		Ports(Map<String, LinkInfo> links)
+		{
+			@SuppressWarnings("unchecked")
+			Entry<String, LinkInfo>[] entries = links.entrySet().toArray(new Entry[links.size()]);
+			Arrays.sort(entries, new Comparator<Entry<String, LinkInfo>>()
+			{
+				@Override
+				public int compare(Entry<String, LinkInfo> e1,
+						Entry<String, LinkInfo> e2)
+				{
+					return Integer.compare(Integer.parseInt(e1.getKey()), Integer.parseInt(e2.getKey()));
+				}
+			});
+
+			refs = new int[entries.length];
+			types = new ExtendedLinkInfo.Type[entries.length];
+			names = new String[entries.length];
+
+			for (int i = 0; i < entries.length; i++)
+			{
+				refs[i] = Integer.parseInt(entries[i].getKey());
+				types[i] = ((ExtendedLinkInfo) entries[i].getValue()).type;
+				names[i] = entries[i].getKey();
+			}
+		}
+
+		int size()
+		{
+			return refs.length;
+		}
+	}
+
+	final Ports inputs;
+	final Ports outputs;
+	final Ports parameters;
+
+	/**
+	 * Type tag of every bound value reference, {@code null} for unbound references
+	 */
+	final ExtendedLinkInfo.Type[] types;
+
+	BindingPlan(Links links)
+	{
+		inputs = new Ports(links.getInputs());
+		outputs = new Ports(links.getOutputs());
+		parameters = new Ports(links.getSharedDesignParameters());
+
+		Map<String, LinkInfo> all = links.getLinks();
+		int max = -1;
+		for (String key : all.keySet())
+		{
+			max = Math.max(max, Integer.parseInt(key));
+		}
+
+		types = new ExtendedLinkInfo.Type[max + 1];
+		for (Entry<String, LinkInfo> entry : all.entrySet())
+		{
+			types[Integer.parseInt(entry.getKey())] = ((ExtendedLinkInfo) entry.getValue()).type;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dumps the class data sharing archive of a tool FMU on its first launch. The exporter only ships the class list of
+ * its training run, see {@link CdsTrainer}, since an archive only applies to the JDK it is dumped with and to the
+ * class path it is dumped from. The archive is therefore dumped in the extraction folder, with the class path and the
+ * JDK of the server, by a separate JVM that runs on after the server exits:
+ * 
+ * <pre>
+ * java -cp &lt;class path&gt; org.crescendo.fmi.CdsArchive &lt;class list&gt; &lt;archive&gt;
+ * </pre>
+ * 
+ * Later launches pick the archive up with {@code -Xshare:auto}. A lock file next to the archive makes sure only one
+ * instance dumps it, a dump that failed is not retried. The output of the dump is appended to a log file next to the
+ * archive.
+ */
+public class CdsArchive
+{
+	final static Logger logger = LoggerFactory.getLogger(CdsArchive.class);
+
+	static final String CLASS_LIST_EXTENSION = ".classlist";
+	static final String LOCK_SUFFIX = ".lock";
+	static final String LOG_SUFFIX = ".log";
+	static final long DUMP_TIMEOUT_SECONDS = 300;
+
+	public static void main(String[] args) throws Exception
+	{
+		File classList = new File(args[0]);
+		File archive = new File(args[1]);
+		File tmp = new File(archive.getPath() + ".tmp");
+
+		Process p = new ProcessBuilder(dumpCommand(classList, tmp, System.getProperty("java.class.path"))).inheritIO().start();
+		if (!p.waitFor(DUMP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+		{
+			p.destroyForcibly();
+			System.err.println("Timeout dumping the class data sharing archive");
+		} else if (p.exitValue() == 0 && tmp.isFile())
+		{
+			Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return;
+		}
+		tmp.delete();
+	}
+
+	/**
+	 * Starts the dump of the archive if it does not exist yet and no other instance has started it
+	 * 
+	 * @param archive
+	 *            the archive the server is launched with, relative to the working directory
+	 * @return true if the dump was started
+	 */
+	static boolean dumpIfMissing(File archive)
+	{
+		File classList = getClassList(archive);
+		try
+		{
+			if (archive.exists() || !classList.isFile()
+					|| !new File(archive.getPath() + LOCK_SUFFIX).createNewFile())
+			{
+				return false;
+			}
+
+			List<String> command = new Vector<String>();
+			command.add(getJava());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(CdsArchive.class.getName());
+			command.add(classList.getPath());
+			command.add(archive.getPath());
+
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(archive.getPath()
+					+ LOG_SUFFIX)));
+			builder.start();
+			logger.debug("Dumping class data sharing archive: {}", archive);
+			return true;
+		} catch (IOException e)
+		{
+			logger.warn("Unable to dump the class data sharing archive", e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return the class list shipped next to the archive, the archive name with the extension
+	 *         {@value #CLASS_LIST_EXTENSION}
+	 */
+	static File getClassList(File archive)
+	{
+		String name = archive.getName();
+		int index = name.lastIndexOf('.');
+		return new File(archive.getParentFile(), (index < 0 ? name
+				: name.substring(0, index)) + CLASS_LIST_EXTENSION);
+	}
+
+	/**
+	 * The command dumping the archive. The class path must be the one the server is launched with, otherwise the JVM
+	 * does not map the archive
+	 */
+	static List<String> dumpCommand(File classList, File archive,
+			String classPath)
+	{
+		List<String> command = new Vector<String>();
+		command.add(getJava());
+		command.add("-XX:+UnlockDiagnosticVMOptions");
+		command.add("-Xshare:dump");
+		command.add("-XX:SharedClassListFile=" + classList.getPath());
+		command.add("-XX:SharedArchiveFile=" + archive.getPath());
+		command.add("-cp");
+		command.add(classPath);
+		return command;
+	}
+
+	private static String getJava()
+	{
+		return new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+	}
+}
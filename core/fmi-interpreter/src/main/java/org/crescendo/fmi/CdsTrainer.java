@@ -0,0 +1,117 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2Empty;
+import com.lausdahl.examples.Service.Fmi2InstantiateRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+
+/**
+ * Training run used by the exporter to record the classes an FMU loads, for building a class data sharing archive. The
+ * exported model is instantiated from its resources folder and stepped without the shared memory service, which is
+ * loaded but not opened.
+ * 
+ * <pre>
+ * java -XX:DumpLoadedClassList=&lt;list&gt; -cp * org.crescendo.fmi.CdsTrainer &lt;resources&gt; [steps] [step size]
+ * </pre>
+ * 
+ * The run always exits normally, a model that fails part way still gives a useful class list.
+ */
+public class CdsTrainer
+{
+	final static Logger logger = LoggerFactory.getLogger(CdsTrainer.class);
+
+	private static final String[] SERVER_CLASSES = {
+			"org.intocps.java.fmi.service.ProtocolDriver",
+			"org.intocps.java.fmi.service.LogProtocolDriver",
+			"org.intocps.java.fmi.shm.SharedMemory",
+			"org.intocps.java.fmi.shm.SharedMemoryServer",
+			"org.crescendo.fmi.ShmServer" };
+
+	public static void main(String[] args)
+	{
+		File resources = new File(args.length > 0 ? args[0] : ".");
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		double stepSize = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+
+		for (String name : SERVER_CLASSES)
+		{
+			try
+			{
+				Class.forName(name);
+			} catch (Throwable e)
+			{
+				logger.debug("Unable to load server class: {}", name);
+			}
+		}
+
+		CrescendoFmu fmu = new CrescendoFmu("cds-training")
+		{
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		Fmi2Empty empty = Fmi2Empty.newBuilder().build();
+		try
+		{
+			if (!isOk(fmu.Instantiate(Fmi2InstantiateRequest.newBuilder().setFmuResourceLocation(resources.getAbsoluteFile().toURI().toString()).build()))
+					|| !isOk(fmu.EnterInitializationMode(empty))
+					|| !isOk(fmu.ExitInitializationMode(empty)))
+			{
+				logger.warn("Training model could not be initialized");
+				return;
+			}
+
+			for (int i = 0; i < steps; i++)
+			{
+				if (!isOk(fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(i
+						* stepSize).setCommunicationStepSize(stepSize).build())))
+				{
+					logger.warn("Training run stopped at step {}", i);
+					break;
+				}
+			}
+
+			fmu.Terminate(empty);
+		} catch (Throwable e)
+		{
+			logger.warn("Training run failed", e);
+		} finally
+		{
+			System.exit(0);
+		}
+	}
+
+	private static boolean isOk(Fmi2StatusReply reply)
+	{
+		return reply.getStatus() == Fmi2StatusReply.Status.Ok;
+	}
+}
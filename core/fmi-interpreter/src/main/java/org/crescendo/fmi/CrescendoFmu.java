@@ -22,11 +22,25 @@
 package org.crescendo.fmi;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.destecs.core.vdmlink.LinkInfo;
@@ -38,6 +52,7 @@ import org.overture.config.Settings;
 import org.overture.interpreter.messages.Console;
 import org.overture.interpreter.messages.StderrRedirector;
 import org.overture.interpreter.messages.StdoutRedirector;
+import org.overture.interpreter.runtime.ValueException;
 import org.overture.interpreter.scheduler.SystemClock;
 import org.overture.interpreter.scheduler.SystemClock.TimeUnit;
 import org.overture.interpreter.values.BooleanValue;
@@ -78,7 +93,7 @@ public abstract class CrescendoFmu implements IServiceProtocol
 
 	enum CrescendoStateType
 	{
-		None, Instantiated, Initialized, Stepping, Terminated
+		None, Instantiated, Initialized, Stepping, StepCancelled, Terminated
 	}
 
 	enum LogCategory
@@ -96,7 +111,18 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	}
 
 	public StateCache state;
-	Double time = (double) 0;
+
+	/**
+	 * The simulation manager of the interpreter context the instance runs in. The interpreter keeps its state in
+	 * statics, so instances sharing a JVM each run in their own {@link SessionClassLoader}
+	 */
+	final FmiSimulationManager manager;
+	double time = 0;
+
+	/**
+	 * the max step size without a next scheduler action to limit the step
+	 */
+	static final double UNBOUNDED_STEP_SIZE = Double.MAX_VALUE;
 	final String sessionName;
 	CrescendoStateType protocolState = CrescendoStateType.None;
 	private boolean loggingOn = false;
@@ -104,7 +130,81 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	double lastCommunicationPoint = 0;
 	double lastStepSize = 0;
 
+	/**
+	 * When set the outputs are not written into the cache after a step but only when requested by a Get call
+	 */
+	static final boolean lazyOutputs = Boolean.getBoolean("crescendo.fmi.lazyOutputs");
+
+	/**
+	 * Requests asynchronous steps, they are only used by instances served over a transport that serves
+	 * {@link #CancelStep()}, see {@link #enableAsyncStep()}
+	 */
+	static final boolean asyncStepRequested = Boolean.getBoolean("crescendo.fmi.asyncStep");
+
+	/**
+	 * When set DoStep runs the model on a worker thread of the instance and returns pending. The master polls
+	 * GetStatus for the fmi2DoStepStatus, every other call waits for the step to complete
+	 */
+	private boolean asyncStep = false;
+
+	/**
+	 * Experimental. When set the reals, integers and booleans of the cache are mirrored in a memory mapped file the
+	 * native wrapper could read and write directly, see {@link MappedStateRegion}. The region is only exchanged at step
+	 * boundaries: it is read at the start of DoStep and written after the step and on Reset, Get and Set calls do not
+	 * touch it. Outputs are then always written after a step. The shipped native wrapper has no reader for the region,
+	 * so this only adds work and is off by default. Ignored with {@link #asyncStep}
+	 */
+	static final boolean mappedState = Boolean.getBoolean("crescendo.fmi.mappedState");
+
+	private MappedStateRegion mappedStateRegion;
+
+	/**
+	 * When set the model is loaded from this resources URI instead of the one sent by Instantiate, for instances served
+	 * on another host than the master
+	 */
+	static final String resourceLocation = System.getProperty("crescendo.fmi.resources");
+
+	private ExecutorService stepExecutor;
+	private volatile Thread stepThread;
+	private Future<Fmi2StatusReply> pendingStep;
+	private volatile boolean stepCancelled = false;
+
+	/**
+	 * the status of the last step, valid once an asynchronous step is completed
+	 */
+	private Fmi2StatusReply lastStepStatus = ok;
+
+	/**
+	 * the call metrics of the instance, see {@link FmuMetrics}
+	 */
+	final FmuMetrics metrics = new FmuMetrics();
+
+	/**
+	 * @return the call metrics of the instance
+	 */
+	public FmuMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * reused by every step
+	 */
+	private final FmiStepResult stepResult = new FmiStepResult();
+
+	/**
+	 * the model sources and the files the model is reloaded from by Reset, the snapshot or the checked classes written
+	 * at load time
+	 */
+	private List<File> specfiles;
+	private List<File> reloadFiles;
+
 	private List<String> enabledLoggingCategories = new Vector<String>();
+
+	/**
+	 * the enabled categories, checked on the step path instead of the names
+	 */
+	private final Set<LogCategory> enabledCategories = EnumSet.noneOf(LogCategory.class);
 	private LogProtocolDriver logDriver = null;
 	private boolean loggerConnected = false;
 
@@ -112,6 +212,7 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	static final Fmi2StatusReply fatal = Fmi2StatusReply.newBuilder().setStatus(Fmi2StatusReply.Status.Fatal).build();
 	static final Fmi2StatusReply error = Fmi2StatusReply.newBuilder().setStatus(Fmi2StatusReply.Status.Error).build();
 	static final Fmi2StatusReply discard = Fmi2StatusReply.newBuilder().setStatus(Fmi2StatusReply.Status.Discard).build();
+	static final Fmi2StatusReply pending = Fmi2StatusReply.newBuilder().setStatus(Fmi2StatusReply.Status.Pending).build();
 
 	/**
 	 * Show the log message either in the console or sends through the log driver
@@ -132,7 +233,12 @@ public abstract class CrescendoFmu implements IServiceProtocol
 					message.substring(0, message.length() - 2);
 				}
 				logger.trace("Sending log message category: {}, data: {}", category.name, message);
+				Object event = FlightEvents.LOG.begin();
 				logDriver.log(category.name, status, message);
+				if (event != null)
+				{
+					FlightEvents.LOG.commit(event, category.name, status.name());
+				}
 			} else
 			{
 				logger.warn("Log driver present: {}, is connected: {}, category: {}", logDriver != null, loggerConnected, category.name);
@@ -144,6 +250,19 @@ public abstract class CrescendoFmu implements IServiceProtocol
 		}
 	}
 
+	/**
+	 * Checks if a message in the category would be logged. Used on the step path to avoid building messages that are
+	 * dropped anyway
+	 * 
+	 * @param category
+	 * @return true if the message would be logged
+	 */
+	private boolean isLogEnabled(LogCategory category)
+	{
+		return enabledCategories.contains(category)
+				|| logger.isTraceEnabled();
+	}
+
 	public void fmiLog(LogCategory category, String message)
 	{
 
@@ -171,6 +290,17 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	public CrescendoFmu(String sessionName)
 	{
 		this.sessionName = sessionName;
+		this.manager = FmiSimulationManager.getInstance();
+	}
+
+	/**
+	 * Runs the steps asynchronously if requested by the crescendo.fmi.asyncStep property. Called by the transports
+	 * serving {@link #CancelStep()} before the instance is instantiated, a master of any other transport could not
+	 * cancel a pending step
+	 */
+	public void enableAsyncStep()
+	{
+		asyncStep = asyncStepRequested;
 	}
 
 	boolean checkStats(CrescendoStateType... st)
@@ -194,41 +324,87 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2StatusReply DoStep(Fmi2DoStepRequest request)
 	{
+		completeStep();
+		loadMappedState();
 
-		if (!checkStats(CrescendoStateType.Initialized))
+		if (checkStats(CrescendoStateType.StepCancelled))
+		{
+			fmiLog(LogCategory.LogError, "DoStep after a cancelled step, the instance must be reset or terminated");
+			return error;
+		} else if (!checkStats(CrescendoStateType.Initialized))
 		{
 			return fatal;
 		}
 
-		try
+		double nextFmiTime = request.getCurrentCommunicationPoint()
+				+ request.getCommunicationStepSize();
+
+		this.lastCommunicationPoint = request.getCurrentCommunicationPoint();
+		this.lastStepSize = request.getCommunicationStepSize();
+
+		// Idle fast path: no thread is released and no timed operation completes before the step ends and no input
+		// changed, so the model cannot observe the step. A changed input is pushed at once, as it may resume a thread
+		// waiting on it
+		if (nextFmiTime < time && !state.hasChangedInputs())
 		{
-			List<NamedValue> inputs = state.collectInputsFromCache();
+			if (isLogEnabled(LogCategory.LogProtocol))
+			{
+				fmiLog(LogCategory.LogProtocol, "DoStep called: " + nextFmiTime
+						+ " skipping execution next time is: " + time);
+			}
+			lastStepStatus = ok;
+			return ok;
+		}
 
-			double nextFmiTime = request.getCurrentCommunicationPoint()
-					+ request.getCommunicationStepSize();
+		if (asyncStep)
+		{
+			final double stepEndTime = nextFmiTime;
+			pendingStep = getStepExecutor().submit(new Callable<Fmi2StatusReply>()
+			{
 
-			this.lastCommunicationPoint = request.getCurrentCommunicationPoint();
-			this.lastStepSize = request.getCommunicationStepSize();
+				@Override
+				public Fmi2StatusReply call()
+				{
+					return timedStep(stepEndTime);
+				}
+			});
+			return pending;
+		}
 
-			fmiLog(LogCategory.LogProtocol, "DoStep called: " + nextFmiTime);
+		lastStepStatus = timedStep(nextFmiTime);
+		return lastStepStatus;
+	}
 
-			if (nextFmiTime < time)
+	/**
+	 * Runs a step and records its time, on the worker running it for an asynchronous step
+	 */
+	private Fmi2StatusReply timedStep(double nextFmiTime)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply status = runStep(nextFmiTime);
+		metrics.record(FmuMetrics.Kind.DoStep, started);
+		return status;
+	}
+
+	/**
+	 * Runs a step that is not skipped
+	 * 
+	 * @param nextFmiTime
+	 *            the time to run to in seconds
+	 * @return the status of the step
+	 */
+	private Fmi2StatusReply runStep(double nextFmiTime)
+	{
+		try
+		{
+			if (isLogEnabled(LogCategory.LogProtocol))
 			{
-				fmiLog(LogCategory.LogProtocol, "DoStep skipping execution next time is: "
-						+ time);
-				return ok;
+				fmiLog(LogCategory.LogProtocol, "DoStep called: " + nextFmiTime);
 			}
 
-			long internalVdmClockTime = SystemClock.timeToInternal(TimeUnit.seconds, nextFmiTime);
-
-			log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "DoStep VDM internal stop time: "
-					+ internalVdmClockTime);
-			List<NamedValue> res = null;
-
 			try
 			{
-
-				res = FmiSimulationManager.getInstance().step(internalVdmClockTime, inputs);
+				step(nextFmiTime);
 			} catch (RemoteSimulationException e)
 			{
 //				if (e.getCause() != null)
@@ -239,48 +415,293 @@ public abstract class CrescendoFmu implements IServiceProtocol
 				fmiLog(LogCategory.LogError, e.getMessage());
 				return fatal;
 			}
+
+			if (isLogEnabled(LogCategory.LogProtocol))
+			{
+				fmiLog(LogCategory.LogProtocol, "DoStep waiting for next DoStep at: "
+						+ time);
+			}
+
+		} catch (Exception e)
+		{
+			logger.error("Error in doStep",e);
+			fmiLog(LogCategory.LogError, "Error in DoStep: " + e.getMessage());
+			return fatal;
+		}
+		return ok;
+	}
+
+	/**
+	 * Handles a complete step in one call: sets the inputs, runs the step and gets the requested outputs. The parts are
+	 * handled by the individual calls, so they behave the same. The step is not run if setting the inputs fails and the
+	 * outputs are left out if setting the inputs or the step fails. Only the socket transport serves it, see
+	 * {@link Fmi2CombinedStep}
+	 * 
+	 * @param request
+	 *            the combined request, absent parts are null
+	 * @return the most severe status of the parts, the status of the step if it was run and the requested outputs
+	 */
+	public Fmi2CombinedStep.Reply CombinedStep(Fmi2CombinedStep.Request request)
+	{
+		Fmi2CombinedStep.Reply reply = new Fmi2CombinedStep.Reply();
+		Fmi2StatusReply status = ok;
+
+		if (request.setReal != null)
+		{
+			status = worst(status, SetReal(request.setReal));
+		}
+		if (request.setInteger != null)
+		{
+			status = worst(status, SetInteger(request.setInteger));
+		}
+		if (request.setBoolean != null)
+		{
+			status = worst(status, SetBoolean(request.setBoolean));
+		}
+		if (request.setString != null)
+		{
+			status = worst(status, SetString(request.setString));
+		}
+
+		if (request.doStep != null && isUsable(status))
+		{
+			Fmi2StatusReply stepStatus = DoStep(request.doStep);
+			if (stepStatus == pending)
+			{
+				// the outputs are only available once the step is done
+				completeStep();
+				stepStatus = lastStepStatus;
+			}
+			reply.doStepStatus = stepStatus;
+			status = worst(status, stepStatus);
+		}
+
+		if (isUsable(status))
+		{
+			if (request.getReal != null)
+			{
+				reply.real = GetReal(request.getReal);
+			}
+			if (request.getInteger != null)
+			{
+				reply.integer = GetInteger(request.getInteger);
+			}
+			if (request.getBoolean != null)
+			{
+				reply.bool = GetBoolean(request.getBoolean);
+			}
+			if (request.getString != null)
+			{
+				reply.string = GetString(request.getString);
+			}
+		}
+
+		reply.status = status;
+		return reply;
+	}
+
+	/**
+	 * @return the more severe of the two statuses
+	 */
+	private static Fmi2StatusReply worst(Fmi2StatusReply a, Fmi2StatusReply b)
+	{
+		return b.getStatus().ordinal() > a.getStatus().ordinal() ? b : a;
+	}
+
+	/**
+	 * @return true if the status allows the instance to continue
+	 */
+	private static boolean isUsable(Fmi2StatusReply status)
+	{
+		return status.getStatus() == Fmi2StatusReply.Status.Ok
+				|| status.getStatus() == Fmi2StatusReply.Status.Warning;
+	}
+
+	/**
+	 * Pushes the changed inputs, runs the model up to the time and writes the outputs into the cache
+	 * 
+	 * @param nextFmiTime
+	 *            the time to run to in seconds
+	 * @throws RemoteSimulationException
+	 * @throws ValueException
+	 */
+	private void step(double nextFmiTime) throws RemoteSimulationException,
+			ValueException
+	{
+		Object event = FlightEvents.STEP.begin();
+		long started = System.nanoTime();
+		// collecting marks the inputs as pushed, so DoStep only gets here after its skip check
+		List<NamedValue> inputs = state.collectInputsFromCache();
+		long syncNanos = System.nanoTime() - started;
+
+		long internalVdmClockTime = SystemClock.timeToInternal(TimeUnit.seconds, nextFmiTime);
+
+		if (isLogEnabled(LogCategory.LogAll))
+		{
+			log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "DoStep VDM internal stop time: "
+					+ internalVdmClockTime);
+		}
+
+		started = System.nanoTime();
+		manager.step(internalVdmClockTime, inputs, stepResult);
+		metrics.record(FmuMetrics.Kind.Interpreter, started);
+
+		// Convert back to SI from internal VDM clock
+		double curTime = SystemClock.internalToTime(TimeUnit.seconds, stepResult.time);
+
+		if (isLogEnabled(LogCategory.LogAll))
+		{
 			log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "DoStep VDM internal time reached: "
 					+ internalVdmClockTime + " at doStep completion");
-			NamedValue timeValue = null;
-			for (NamedValue namedValue : res)
+			log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "DoStep VDM clock conversion. Internal time: "
+					+ stepResult.time + " External [s]: " + curTime);
+		}
+
+		// Write changes to the FMI cache
+		started = System.nanoTime();
+		if (lazyOutputs && mappedStateRegion == null)
+		{
+			state.markOutputsStale(stepResult.outputs);
+		} else
+		{
+			state.syncOutputsToCache(stepResult.outputs);
+		}
+		publishMappedState();
+		metrics.recordNanos(FmuMetrics.Kind.CacheSync, syncNanos
+				+ System.nanoTime() - started);
+
+		time = curTime;
+
+		if (event != null)
+		{
+			FlightEvents.STEP.commit(event, nextFmiTime, inputs.size(), state.plan.outputs.size(), stepResult.time);
+		}
+	}
+
+	/**
+	 * Reads the values the native wrapper has written into the mapped region, if any, into the cache. Called at the
+	 * start of DoStep only
+	 */
+	private void loadMappedState()
+	{
+		if (mappedStateRegion != null)
+		{
+			mappedStateRegion.load(state);
+		}
+	}
+
+	/**
+	 * Writes the cache into the mapped region, if any. Called after a step and on Reset only
+	 */
+	private void publishMappedState()
+	{
+		if (mappedStateRegion != null)
+		{
+			mappedStateRegion.publish(state);
+		}
+	}
+
+	/**
+	 * @return the single thread executor running the asynchronous steps of the instance
+	 */
+	private ExecutorService getStepExecutor()
+	{
+		if (stepExecutor == null)
+		{
+			stepExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
 			{
-				if (namedValue.name.equals("time"))
+
+				@Override
+				public Thread newThread(Runnable r)
 				{
-					timeValue = namedValue;
+					stepThread = new Thread(r, "Crescendo step " + sessionName);
+					stepThread.setDaemon(true);
+					return stepThread;
 				}
-			}
-			res.remove(timeValue);
+			});
+		}
+		return stepExecutor;
+	}
 
-			Double curTime = timeValue.value.realValue(null);
+	/**
+	 * @return true while an asynchronous step is running
+	 */
+	private boolean isStepPending()
+	{
+		return pendingStep != null && !pendingStep.isDone();
+	}
 
-			// Convert back to SI from internal VDM clock
-			curTime = SystemClock.internalToTime(TimeUnit.seconds, curTime.longValue());
-			log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "DoStep VDM clock conversion. Internal time: "
-					+ internalVdmClockTime + " External [s]: "+curTime);
+	/**
+	 * Waits for a pending asynchronous step and records its status. Called first by everything touching the model or
+	 * the cache, so those never run concurrently with a step
+	 */
+	private void completeStep()
+	{
+		if (pendingStep == null)
+		{
+			return;
+		}
 
-			// Write changes to the FMI cache
-			state.syncOutputsToCache(res);
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				lastStepStatus = pendingStep.get();
+				break;
+			} catch (InterruptedException e)
+			{
+				interrupted = true;
+			} catch (ExecutionException e)
+			{
+				logger.error("Error in asynchronous doStep", e.getCause());
+				lastStepStatus = fatal;
+				break;
+			}
+		}
+		pendingStep = null;
 
-			time = curTime;
-			fmiLog(LogCategory.LogProtocol, "DoStep waiting for next DoStep at: "
-					+ time);
+		if (stepCancelled)
+		{
+			stepCancelled = false;
+			lastStepStatus = error;
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
 
-		} catch (Exception e)
+	/**
+	 * Cancels a pending asynchronous step by interrupting the thread running it. The interpreter is left at whatever
+	 * point the step reached, so the instance only accepts Reset, Terminate and FreeInstantiate afterwards
+	 * 
+	 * @return ok if a step was pending, otherwise error
+	 */
+	public Fmi2StatusReply CancelStep()
+	{
+		if (!isStepPending())
 		{
-			logger.error("Error in doStep",e);
-			fmiLog(LogCategory.LogError, "Error in DoStep: " + e.getMessage());
-			return fatal;
+			return error;
 		}
+
+		fmiLog(LogCategory.LogProtocol, "Cancelling step");
+		stepCancelled = true;
+		protocolState = CrescendoStateType.StepCancelled;
+		stepThread.interrupt();
 		return ok;
 	}
 
 	@Override
 	public Fmi2StatusReply Terminate(Fmi2Empty parseFrom)
 	{
+		completeStep();
+
 		log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "terminate");
 		try
 		{
-			FmiSimulationManager.getInstance().stopSimulation();
+			stopModel();
+			protocolState = CrescendoStateType.Terminated;
 		} catch (RemoteSimulationException e)
 		{
 			e.printStackTrace();
@@ -298,56 +719,85 @@ public abstract class CrescendoFmu implements IServiceProtocol
 		return ok;
 	}
 
+	/**
+	 * Sets the pending parameters and starts the model
+	 * 
+	 * @return false if a parameter has an invalid value
+	 * @throws RemoteSimulationException
+	 */
+	private boolean startModel() throws RemoteSimulationException
+	{
+		List<NamedValue> parameters = new Vector<NamedValue>();
+		for (Entry<String, LinkInfo> link : state.getPendingSetParameters().entrySet())
+		{
+			int index = Integer.valueOf(link.getKey());
+
+			ExtendedLinkInfo info = (ExtendedLinkInfo) link.getValue();
+
+			Value value = null;
+			switch (info.type)
+			{
+				case Boolean:
+					value = new BooleanValue(state.booleans[index]);
+					break;
+				case Integer:
+					value = new IntegerValue(state.integers[index]);
+					break;
+				case Real:
+					try
+					{
+						value = new RealValue(state.reals[index]);
+					} catch (Exception e)
+					{
+						return false;
+					}
+					break;
+				case String:
+					value = new SeqValue(state.strings[index]);
+					break;
+				default:
+					break;
+
+			}
+
+			logger.debug("Added sdp with name: '{}' value: '{}' valueref: '{}'", state.links.getQualifiedName(link.getKey()), value, link.getKey());
+			parameters.add(new NamedValue(link.getKey(), value, -1));
+		}
+		manager.setParameters(parameters);
+
+		logger.debug("Starting simulation manager with time: {}", (long) time);
+		// start
+		manager.start((long) time);
+
+		return true;
+	}
+
+	/**
+	 * Stops the run of the model started by {@link #startModel()} and its interpreter threads
+	 * 
+	 * @throws RemoteSimulationException
+	 */
+	void stopModel() throws RemoteSimulationException
+	{
+		manager.stopSimulation();
+	}
+
 	@Override
 	public Fmi2StatusReply ExitInitializationMode(Fmi2Empty parseFrom)
 	{
+		completeStep();
+
 		if (!checkStats(CrescendoStateType.Instantiated))
 		{
 			return fatal;
 		}
 		try
 		{
-
-			for (Entry<String, LinkInfo> link : state.getPendingSetParameters().entrySet())
+			if (!startModel())
 			{
-				int index = Integer.valueOf(link.getKey());
-
-				ExtendedLinkInfo info = (ExtendedLinkInfo) link.getValue();
-
-				Value value = null;
-				switch (info.type)
-				{
-					case Boolean:
-						value = new BooleanValue(state.booleans[index]);
-						break;
-					case Integer:
-						value = new IntegerValue(state.integers[index]);
-						break;
-					case Real:
-						try
-						{
-							value = new RealValue(state.reals[index]);
-						} catch (Exception e)
-						{
-							return fatal;
-						}
-						break;
-					case String:
-						value = new SeqValue(state.strings[index]);
-						break;
-					default:
-						break;
-
-				}
-
-				logger.debug("Added sdp with name: '{}' value: '{}' valueref: '{}'", state.links.getQualifiedName(link.getKey()), value, link.getKey());
-				FmiSimulationManager.getInstance().setParameter(new NamedValue(link.getKey(), value, -1));
+				return fatal;
 			}
 
-			logger.debug("Starting simulation manager with time: {}", time.longValue());
-			// start
-			FmiSimulationManager.getInstance().start(time.longValue());
-
 			protocolState = CrescendoStateType.Initialized;
 		} catch (RemoteSimulationException e)
 		{
@@ -362,14 +812,18 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2GetRealReply GetReal(Fmi2GetRequest request)
 	{
+		completeStep();
 
 		Fmi2GetRealReply.Builder reply = Fmi2GetRealReply.newBuilder();
 
 		for (int i = 0; i < request.getValueReferenceCount(); i++)
 		{
 			long id = request.getValueReference(i);
-			logger.trace("GetReal index: {}", id);
-			reply.addValues(state.reals[new Long(id).intValue()]);
+			if (logger.isTraceEnabled())
+			{
+				logger.trace("GetReal index: {}", id);
+			}
+			reply.addValues(state.reals[getIndex(id)]);
 		}
 		return reply.build();
 	}
@@ -377,14 +831,18 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2GetBooleanReply GetBoolean(Fmi2GetRequest request)
 	{
+		completeStep();
 
 		Fmi2GetBooleanReply.Builder reply = Fmi2GetBooleanReply.newBuilder();
 
 		for (int i = 0; i < request.getValueReferenceCount(); i++)
 		{
 			long id = request.getValueReference(i);
-			logger.trace("GetBoolean index: {}", id);
-			reply.addValues(state.booleans[new Long(id).intValue()]);
+			if (logger.isTraceEnabled())
+			{
+				logger.trace("GetBoolean index: {}", id);
+			}
+			reply.addValues(state.booleans[getIndex(id)]);
 		}
 		return reply.build();
 	}
@@ -392,42 +850,92 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2GetIntegerReply GetInteger(Fmi2GetRequest request)
 	{
+		completeStep();
 
 		Fmi2GetIntegerReply.Builder reply = Fmi2GetIntegerReply.newBuilder();
 
 		for (int i = 0; i < request.getValueReferenceCount(); i++)
 		{
 			long id = request.getValueReference(i);
-			logger.trace("GetInteger index: {}", id);
-			reply.addValues(state.integers[new Long(id).intValue()]);
+			if (logger.isTraceEnabled())
+			{
+				logger.trace("GetInteger index: {}", id);
+			}
+			reply.addValues(state.integers[getIndex(id)]);
 		}
 		return reply.build();
-
 	}
 
 	@Override
 	public Fmi2GetStringReply GetString(Fmi2GetRequest request)
 	{
+		completeStep();
+
 		Fmi2GetStringReply.Builder reply = Fmi2GetStringReply.newBuilder();
 
 		for (int i = 0; i < request.getValueReferenceCount(); i++)
 		{
 			long id = request.getValueReference(i);
-			logger.trace("GetString index: {}", id);
-			reply.addValues(state.strings[new Long(id).intValue()]);
+			if (logger.isTraceEnabled())
+			{
+				logger.trace("GetString index: {}", id);
+			}
+			reply.addValues(state.strings[getIndex(id)]);
 		}
 		reply.setValid(true);
 		return reply.build();
 	}
 
+	/**
+	 * Converts a value reference into a cache index. In lazy output mode the output is brought up to date first
+	 * 
+	 * @param id
+	 *            the value reference
+	 * @return the cache index
+	 */
+	private int getIndex(long id)
+	{
+		int index = (int) id;
+		if (lazyOutputs)
+		{
+			try
+			{
+				state.syncStaleOutput(index);
+			} catch (ValueException e)
+			{
+				logger.error("Error in output sync", e);
+				fmiLog(LogCategory.LogError, e.getMessage());
+			}
+		}
+		return index;
+	}
+
 	/***
-	 * Addition to INTO-CPS
+	 * Addition to INTO-CPS. The max step size is the distance from the current communication point to the next action
+	 * of the VDM-RT scheduler, computed in internal clock units so periodic threads give their exact period. The query
+	 * only reads the next action time from the scheduler and never runs the model. Without a next action after the
+	 * current communication point, and outside initialized mode, the step size is {@link #UNBOUNDED_STEP_SIZE}
 	 */
 	@Override
 	public Fmi2GetMaxStepSizeReply GetMaxStepSize(Fmi2Empty parseFrom)
 	{
-		return Fmi2GetMaxStepSizeReply.newBuilder().setMaxStepSize(time==0?Double.MIN_VALUE:time
-				- (lastCommunicationPoint + lastStepSize)).build();
+		completeStep();
+
+		double maxStepSize = UNBOUNDED_STEP_SIZE;
+
+		if (checkStats(CrescendoStateType.Initialized))
+		{
+			long currentTime = SystemClock.timeToInternal(TimeUnit.seconds, lastCommunicationPoint
+					+ lastStepSize);
+			long nextActionTime = manager.getNextSchedulableActionTime();
+			if (nextActionTime > currentTime)
+			{
+				maxStepSize = SystemClock.internalToTime(TimeUnit.seconds, nextActionTime
+						- currentTime);
+			}
+		}
+
+		return Fmi2GetMaxStepSizeReply.newBuilder().setMaxStepSize(maxStepSize).build();
 	}
 
 	@Override
@@ -437,6 +945,7 @@ public abstract class CrescendoFmu implements IServiceProtocol
 		{
 			return fatal;
 		}
+		metrics.register(sessionName);
 
 		if (request.getLogginOn())
 		{
@@ -452,11 +961,16 @@ public abstract class CrescendoFmu implements IServiceProtocol
 			}
 		}
 
+		if (asyncStepRequested && !asyncStep)
+		{
+			logger.warn("Asynchronous steps need a transport serving CancelStep, the steps of '{}' run synchronously", sessionName);
+		}
+
 		logger.debug(String.format("Instantiating %s.%s with loggingOn = %s, resource location='%s'", request.getFmuGuid(), request.getInstanceName(), request.getLogginOn()
 				+ "", request.getFmuResourceLocation()));
 		try
 		{
-			FmiSimulationManager.getInstance().initialize();
+			manager.initialize();
 
 			final CrescendoFmu finalThis = this;
 
@@ -484,48 +998,220 @@ public abstract class CrescendoFmu implements IServiceProtocol
 			Settings.invchecks = true;
 			Settings.dynamictypechecks = true;
 			Settings.measureChecks = true;
-			boolean disableRtLog = true;
-			boolean disableCoverage = false;
-			boolean disableOptimization = false;
 
 			Settings.usingCmdLine = true;
 			Settings.usingDBGP = false;
 
-			List<File> specfiles = new Vector<File>();
+			loadModel(new File(new URI(resourceLocation != null ? resourceLocation
+					: request.getFmuResourceLocation())));
 
-			File root = new File(new URI(request.getFmuResourceLocation()));
-			File sourceRoot = new File(root, "model");
-			log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "Source root: "
-					+ sourceRoot);
-			logger.trace("Source root: {}", sourceRoot);
+			protocolState = CrescendoStateType.Instantiated;
+
+		} catch (Exception e)
+		{
+			logger.error("Error in instantiate: " + e.getMessage(), e);
+			return fatal;
+		}
+		return ok;
+	}
 
-			specfiles.addAll(FileUtils.listFiles(sourceRoot, new String[] { "vdmrt" }, true));
-			logger.trace("Spec files: {}", org.apache.commons.lang3.StringUtils.join(specfiles, ","));
+	/**
+	 * Loads the model from the resources folder into a fresh cache
+	 * 
+	 * @param root
+	 *            the FMU resources folder
+	 * @throws Exception
+	 */
+	private void loadModel(File root) throws Exception
+	{
+		specfiles = new Vector<File>();
 
-			File linkFile = new File(root, "modelDescription.xml".replace('/', File.separatorChar));
-			File baseDirFile = new File(".");
+		File sourceRoot = new File(root, "model");
+		log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "Source root: "
+				+ sourceRoot);
+		logger.trace("Source root: {}", sourceRoot);
 
-			logger.trace("Model Description path: {}", linkFile);
+		specfiles.addAll(FileUtils.listFiles(sourceRoot, new String[] { "vdmrt" }, true));
+		logger.trace("Spec files: {}", org.apache.commons.lang3.StringUtils.join(specfiles, ","));
 
-			state = new StateCache(linkFile);
+		File linkFile = new File(root, "modelDescription.xml".replace('/', File.separatorChar));
 
-			FmiSimulationManager.getInstance().load(specfiles, state.links, new File("."), baseDirFile, disableRtLog, disableCoverage, disableOptimization);
+		logger.trace("Model Description path: {}", linkFile);
 
-			protocolState = CrescendoStateType.Instantiated;
+		state = new StateCache(linkFile);
 
-		} catch (Exception e)
+		List<File> modelFiles = selectModelFiles(root, sourceRoot);
+		try
 		{
-			logger.error("Error in instantiate: " + e.getMessage(), e);
-			return fatal;
+			load(modelFiles);
+		} catch (RemoteSimulationException e)
+		{
+			if (modelFiles == specfiles)
+			{
+				throw e;
+			}
+			logger.warn("Unable to load model snapshot, loading the sources instead", e);
+			manager.initialize();
+			modelFiles = specfiles;
+			load(specfiles);
+		}
+
+		// written before any parameter is applied, the parameters change the checked classes
+		reloadFiles = modelFiles != specfiles ? modelFiles
+				: writeCheckedClasses();
+
+		if (mappedState && asyncStep)
+		{
+			// the region has a single writer per side, a step running on the worker would write the outputs while the
+			// protocol thread loads the inputs
+			logger.warn("The mapped state region cannot be used with asynchronous steps, "
+					+ "values are only exchanged by messages");
+		} else if (mappedState && mappedStateRegion == null)
+		{
+			File regionFile = MappedStateRegion.getFile(sessionName);
+			try
+			{
+				mappedStateRegion = MappedStateRegion.create(regionFile, state);
+				logger.debug("Mapped state region: {}", regionFile);
+			} catch (IOException e)
+			{
+				logger.warn("Unable to map the state region, values are only exchanged by messages", e);
+			}
+		}
+	}
+
+	/**
+	 * Selects the files to load the model from
+	 * 
+	 * @param root
+	 *            the FMU resources folder
+	 * @param sourceRoot
+	 *            the folder holding the model sources
+	 * @return the snapshot if it matches this interpreter and the sources, otherwise the sources
+	 */
+	private List<File> selectModelFiles(File root, File sourceRoot)
+	{
+		File snapshot = new File(root, ModelSnapshot.FILE_NAME);
+		File header = new File(root, ModelSnapshot.HEADER_NAME);
+
+		if (!snapshot.isFile() || !header.isFile())
+		{
+			return specfiles;
+		}
+
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(header))
+		{
+			props.load(in);
+
+			String mismatch = ModelSnapshot.checkHeader(props, ModelSnapshot.getSourcePaths(sourceRoot, specfiles));
+			if (mismatch == null)
+			{
+				List<File> files = new Vector<File>();
+				files.add(snapshot);
+				return files;
+			}
+			logger.debug("Model snapshot not used, {}", mismatch);
+		} catch (IOException e)
+		{
+			logger.warn("Unable to read model snapshot header", e);
+		}
+		return specfiles;
+	}
+
+	private void load(List<File> files) throws RemoteSimulationException
+	{
+		boolean disableRtLog = true;
+		boolean disableCoverage = false;
+		boolean disableOptimization = false;
+
+		File baseDirFile = new File(".");
+		manager.load(files, state, new File("."), baseDirFile, disableRtLog, disableCoverage, disableOptimization);
+	}
+
+	/**
+	 * Brings the model and the cache back to the state they have after Instantiate. A model loaded from its sources is
+	 * reloaded from the temporary library its type checked classes were written to when loaded, so the sources are only
+	 * parsed and checked once per instance
+	 * 
+	 * @throws Exception
+	 */
+	private void reload() throws Exception
+	{
+		if (checkStats(CrescendoStateType.Initialized, CrescendoStateType.StepCancelled))
+		{
+			// the run started by ExitInitializationMode still has its threads
+			stopModel();
+		}
+
+		manager.initialize();
+		VDMCO.replaceNewIdentifier.clear();
+		state.reset();
+		try
+		{
+			load(reloadFiles);
+		} catch (RemoteSimulationException e)
+		{
+			if (reloadFiles == specfiles)
+			{
+				throw e;
+			}
+			logger.warn("Unable to reload the checked model, loading the sources instead", e);
+			reloadFiles = specfiles;
+			manager.initialize();
+			load(specfiles);
+		}
+
+		protocolState = CrescendoStateType.Instantiated;
+		time = 0;
+		lastCommunicationPoint = 0;
+		lastStepSize = 0;
+		publishMappedState();
+	}
+
+	/**
+	 * @return a temporary library holding the checked classes of the loaded model, or the sources if it cannot be
+	 *         written
+	 */
+	private List<File> writeCheckedClasses()
+	{
+		try
+		{
+			File library = File.createTempFile("crescendo-model-", ".lib");
+			library.deleteOnExit();
+			ModelSnapshot.write(manager.getCheckedClasses(), library);
+
+			List<File> files = new Vector<File>();
+			files.add(library);
+			return files;
+		} catch (IOException e)
+		{
+			logger.warn("Unable to write the checked model, reset will load the sources", e);
+			return specfiles;
 		}
-		return ok;
 	}
 
 	@Override
 	public Fmi2StatusReply Reset(Fmi2Empty parseFrom)
 	{
-		fmiLog(LogCategory.LogProtocol, "Reset not supported");
-		return error;
+		completeStep();
+
+		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.StepCancelled, CrescendoStateType.Terminated))
+		{
+			return error;
+		}
+
+		try
+		{
+			reload();
+		} catch (Exception e)
+		{
+			logger.error("Error in reset", e);
+			fmiLog(LogCategory.LogError, "Error in Reset: " + e.getMessage());
+			return fatal;
+		}
+		log(LogCategory.LogAll, Fmi2LogReply.Status.Ok, "reset");
+		return ok;
 	}
 
 	@Override
@@ -538,6 +1224,13 @@ public abstract class CrescendoFmu implements IServiceProtocol
 			String category = request.getCatogories(i);
 			logger.debug("Enabling logging for category: {}", category);
 			enabledLoggingCategories.add(category);
+			for (LogCategory logCategory : LogCategory.values())
+			{
+				if (logCategory.name.equals(category))
+				{
+					enabledCategories.add(logCategory);
+				}
+			}
 		}
 		return ok;
 	}
@@ -545,6 +1238,8 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2StatusReply SetReal(final Fmi2SetRealRequest request)
 	{
+		completeStep();
+
 		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
 		{
 			return error;
@@ -556,7 +1251,10 @@ public abstract class CrescendoFmu implements IServiceProtocol
 		{
 			int id = request.getValueReference(i);
 			state.markParameterPending(id);
-			logger.trace("Setting real[{}] = {}", id, request.getValues(i));
+			if (logger.isTraceEnabled())
+			{
+				logger.trace("Setting real[{}] = {}", id, request.getValues(i));
+			}
 
 			if (Double.isNaN(request.getValues(i)))
 			{
@@ -574,6 +1272,8 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2StatusReply SetInteger(Fmi2SetIntegerRequest request)
 	{
+		completeStep();
+
 		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
 		{
 			return error;
@@ -591,6 +1291,8 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2StatusReply SetBoolean(Fmi2SetBooleanRequest request)
 	{
+		completeStep();
+
 		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
 		{
 			return error;
@@ -608,6 +1310,8 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2StatusReply SetString(Fmi2SetStringRequest request)
 	{
+		completeStep();
+
 		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
 		{
 			return error;
@@ -621,6 +1325,249 @@ public abstract class CrescendoFmu implements IServiceProtocol
 		return ok;
 	}
 
+	/**
+	 * Bulk get of reals without protobuf messages. The buffers are used little-endian from their position to their
+	 * limit, the positions are advanced past the data transferred. The values buffer must have room for every reference
+	 * and the references must be within the cache, otherwise error is returned. A get stops at the first invalid
+	 * reference while a set skips it. Served by the socket transport as
+	 * {@link org.crescendo.fmi.transport.Call#GetRealBulk}, which the
+	 * {@link org.crescendo.fmi.transport.RemoteServiceProxy} serving the native wrapper forwards its Get and Set calls
+	 * with. The shared memory protocol of the native wrapper itself has no bulk messages
+	 * 
+	 * @param refs
+	 *            the value references as consecutive 32 bit integers
+	 * @param values
+	 *            receives a 64 bit float per reference
+	 * @return the status
+	 */
+	public Fmi2StatusReply GetRealBulk(ByteBuffer refs, ByteBuffer values)
+	{
+		completeStep();
+
+		refs.order(ByteOrder.LITTLE_ENDIAN);
+		values.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasBulkValues(refs, values, 8))
+		{
+			return error;
+		}
+		while (refs.remaining() >= 4)
+		{
+			int id = refs.getInt();
+			if (!isValidReference(id, state.reals.length))
+			{
+				return error;
+			}
+			values.putDouble(state.reals[getIndex(id)]);
+		}
+		return ok;
+	}
+
+	/**
+	 * Bulk get of integers, see {@link #GetRealBulk(ByteBuffer, ByteBuffer)}
+	 * 
+	 * @param values
+	 *            receives a 32 bit integer per reference
+	 */
+	public Fmi2StatusReply GetIntegerBulk(ByteBuffer refs, ByteBuffer values)
+	{
+		completeStep();
+
+		refs.order(ByteOrder.LITTLE_ENDIAN);
+		values.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasBulkValues(refs, values, 4))
+		{
+			return error;
+		}
+		while (refs.remaining() >= 4)
+		{
+			int id = refs.getInt();
+			if (!isValidReference(id, state.integers.length))
+			{
+				return error;
+			}
+			values.putInt(state.integers[getIndex(id)]);
+		}
+		return ok;
+	}
+
+	/**
+	 * Bulk get of booleans, see {@link #GetRealBulk(ByteBuffer, ByteBuffer)}
+	 * 
+	 * @param values
+	 *            receives a byte per reference, 1 for true and 0 for false
+	 */
+	public Fmi2StatusReply GetBooleanBulk(ByteBuffer refs, ByteBuffer values)
+	{
+		completeStep();
+
+		refs.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasBulkValues(refs, values, 1))
+		{
+			return error;
+		}
+		while (refs.remaining() >= 4)
+		{
+			int id = refs.getInt();
+			if (!isValidReference(id, state.booleans.length))
+			{
+				return error;
+			}
+			values.put((byte) (state.booleans[getIndex(id)] ? 1 : 0));
+		}
+		return ok;
+	}
+
+	/**
+	 * Bulk set of reals, see {@link #GetRealBulk(ByteBuffer, ByteBuffer)}. NaN values are not set and give discard like
+	 * {@link #SetReal(Fmi2SetRealRequest)}
+	 * 
+	 * @param values
+	 *            a 64 bit float per reference
+	 */
+	public Fmi2StatusReply SetRealBulk(ByteBuffer refs, ByteBuffer values)
+	{
+		completeStep();
+
+		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
+		{
+			return error;
+		}
+
+		Fmi2StatusReply status = ok;
+
+		refs.order(ByteOrder.LITTLE_ENDIAN);
+		values.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasBulkValues(refs, values, 8))
+		{
+			return error;
+		}
+		while (refs.remaining() >= 4)
+		{
+			int id = refs.getInt();
+			double value = values.getDouble();
+			if (!isValidReference(id, state.reals.length))
+			{
+				status = error;
+				continue;
+			}
+			state.markParameterPending(id);
+
+			if (Double.isNaN(value))
+			{
+				status = discard;
+				fmiLog(LogCategory.LogError, "Cannot set real with id " + id
+						+ " invalid value: " + value);
+			} else
+			{
+				state.reals[id] = value;
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Bulk set of integers, see {@link #GetRealBulk(ByteBuffer, ByteBuffer)}
+	 * 
+	 * @param values
+	 *            a 32 bit integer per reference
+	 */
+	public Fmi2StatusReply SetIntegerBulk(ByteBuffer refs, ByteBuffer values)
+	{
+		completeStep();
+
+		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
+		{
+			return error;
+		}
+
+		refs.order(ByteOrder.LITTLE_ENDIAN);
+		values.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasBulkValues(refs, values, 4))
+		{
+			return error;
+		}
+
+		Fmi2StatusReply status = ok;
+		while (refs.remaining() >= 4)
+		{
+			int id = refs.getInt();
+			int value = values.getInt();
+			if (!isValidReference(id, state.integers.length))
+			{
+				status = error;
+				continue;
+			}
+			state.markParameterPending(id);
+			state.integers[id] = value;
+		}
+		return status;
+	}
+
+	/**
+	 * Bulk set of booleans, see {@link #GetRealBulk(ByteBuffer, ByteBuffer)}
+	 * 
+	 * @param values
+	 *            a byte per reference, any value but 0 is true
+	 */
+	public Fmi2StatusReply SetBooleanBulk(ByteBuffer refs, ByteBuffer values)
+	{
+		completeStep();
+
+		if (!checkStats(CrescendoStateType.Instantiated, CrescendoStateType.Initialized, CrescendoStateType.Stepping))
+		{
+			return error;
+		}
+
+		refs.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasBulkValues(refs, values, 1))
+		{
+			return error;
+		}
+
+		Fmi2StatusReply status = ok;
+		while (refs.remaining() >= 4)
+		{
+			int id = refs.getInt();
+			boolean value = values.get() != 0;
+			if (!isValidReference(id, state.booleans.length))
+			{
+				status = error;
+				continue;
+			}
+			state.markParameterPending(id);
+			state.booleans[id] = value;
+		}
+		return status;
+	}
+
+	/**
+	 * @return true if the values buffer holds a value of the size for every reference, otherwise it is logged
+	 */
+	private boolean hasBulkValues(ByteBuffer refs, ByteBuffer values,
+			int size)
+	{
+		if (values.remaining() / size >= refs.remaining() / 4)
+		{
+			return true;
+		}
+		fmiLog(LogCategory.LogError, "Bulk transfer of " + refs.remaining()
+				/ 4 + " values with room for " + values.remaining() / size);
+		return false;
+	}
+
+	/**
+	 * @return true if the value reference is an index of the cache array of the length, otherwise it is logged
+	 */
+	private boolean isValidReference(int id, int length)
+	{
+		if (id >= 0 && id < length)
+		{
+			return true;
+		}
+		fmiLog(LogCategory.LogError, "Invalid value reference: " + id);
+		return false;
+	}
+
 	@Override
 	public Fmi2StatusReply SetupExperiment(Fmi2SetupExperimentRequest parseFrom)
 	{
@@ -637,6 +1584,16 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public Fmi2StatusReply GetStatus(Fmi2StatusRequest request)
 	{
+		if (request.getStatus() == Fmi2StatusRequest.FmiStatusKind.fmi2DoStepStatus)
+		{
+			if (isStepPending())
+			{
+				return pending;
+			}
+			completeStep();
+			return lastStepStatus;
+		}
+
 		fmiLog(LogCategory.LogProtocol, "GetStatus not supported");
 		return discard;
 	}
@@ -652,6 +1609,11 @@ public abstract class CrescendoFmu implements IServiceProtocol
 			case fmi2DoStepStatus:
 				break;
 			case fmi2LastSuccessfulTime:
+				if (isStepPending())
+				{
+					return Fmi2RealStatusReply.newBuilder().setValue(lastCommunicationPoint).build();
+				}
+				completeStep();
 				return Fmi2RealStatusReply.newBuilder().setValue(time).build();
 			case fmi2PendingStatus:
 				break;
@@ -690,6 +1652,31 @@ public abstract class CrescendoFmu implements IServiceProtocol
 	@Override
 	public void FreeInstantiate(Fmi2Empty arg0)
 	{
+		completeStep();
+		if (checkStats(CrescendoStateType.Initialized, CrescendoStateType.StepCancelled))
+		{
+			// freed without Terminate, stop the interpreter threads so a hosted session does not keep its loader alive
+			try
+			{
+				stopModel();
+			} catch (RemoteSimulationException e)
+			{
+				logger.warn("Error stopping the simulation", e);
+			}
+			protocolState = CrescendoStateType.Terminated;
+		}
+		logger.info("Metrics of '{}':\n{}", sessionName, metrics.dump());
+		metrics.unregister();
+		if (stepExecutor != null)
+		{
+			stepExecutor.shutdown();
+		}
+		if (mappedStateRegion != null)
+		{
+			mappedStateRegion.close();
+			mappedStateRegion = null;
+		}
+
 		if (logDriver != null)
 		{
 			logger.debug("Closing log driver");
@@ -0,0 +1,255 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Vector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events of the FMU, in the Crescendo FMI category. The events are defined at runtime through
+ * {@code jdk.jfr.EventFactory}, so the interpreter still builds and runs on a JVM without JFR where the events are
+ * no-ops. An event is only created while the flight recorder is initialized:
+ * 
+ * <pre>
+ * Object event = FlightEvents.STEP.begin();
+ * ...
+ * if (event != null)
+ * {
+ * 	FlightEvents.STEP.commit(event, values...);
+ * }
+ * </pre>
+ */
+final class FlightEvents
+{
+	final static Logger logger = LoggerFactory.getLogger(FlightEvents.class);
+
+	private static final MethodHandle IS_INITIALIZED;
+	private static final MethodHandle BEGIN;
+	private static final MethodHandle END;
+	private static final MethodHandle SHOULD_COMMIT;
+	private static final MethodHandle SET;
+	private static final MethodHandle COMMIT;
+
+	static
+	{
+		MethodHandle isInitialized = null;
+		MethodHandle begin = null;
+		MethodHandle end = null;
+		MethodHandle shouldCommit = null;
+		MethodHandle set = null;
+		MethodHandle commit = null;
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			isInitialized = lookup.unreflect(Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized"));
+			begin = lookup.unreflect(event.getMethod("begin"));
+			end = lookup.unreflect(event.getMethod("end"));
+			shouldCommit = lookup.unreflect(event.getMethod("shouldCommit"));
+			set = lookup.unreflect(event.getMethod("set", int.class, Object.class));
+			commit = lookup.unreflect(event.getMethod("commit"));
+		} catch (Throwable e)
+		{
+			logger.debug("Flight recorder events are not available: {}", e.toString());
+			isInitialized = null;
+		}
+		IS_INITIALIZED = isInitialized;
+		BEGIN = begin;
+		END = end;
+		SHOULD_COMMIT = shouldCommit;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	/**
+	 * a step of the model: the communication point it ends at, inputs pushed, outputs read and the internal VDM time
+	 * reached
+	 */
+	static final Type STEP = new Type("org.crescendo.fmi.Step", "FMU Step", new Class<?>[] {
+			double.class, int.class, int.class, long.class }, "communicationPoint", "inputs", "outputs", "vdmTime");
+
+	/**
+	 * the shared design parameters applied to the model before it starts
+	 */
+	static final Type PARAMETERS = new Type("org.crescendo.fmi.Parameters", "FMU Parameter Application", new Class<?>[] { int.class }, "parameters");
+
+	/**
+	 * a message sent through the log callback of the master
+	 */
+	static final Type LOG = new Type("org.crescendo.fmi.Log", "FMU Log Callback", new Class<?>[] {
+			String.class, String.class }, "category", "status");
+
+	private FlightEvents()
+	{
+	}
+
+	/**
+	 * Starts a recording with the profile settings, dumped when the JVM exits. Started through the {@code jdk.jfr} API
+	 * rather than {@code -XX:StartFlightRecording}, so a JVM without it, like JDK 8 before 8u262 or Oracle JDK 8
+	 * without commercial features, logs a warning and runs without a recording instead of failing to start
+	 * 
+	 * @param destination
+	 *            the recording file
+	 * @return true if the recording was started
+	 */
+	static boolean startRecording(File destination)
+	{
+		try
+		{
+			Class<?> configuration = Class.forName("jdk.jfr.Configuration");
+			Class<?> recordingType = Class.forName("jdk.jfr.Recording");
+			Object profile = configuration.getMethod("getConfiguration", String.class).invoke(null, "profile");
+			Object recording = recordingType.getConstructor(configuration).newInstance(profile);
+			recordingType.getMethod("setName", String.class).invoke(recording, "Crescendo FMI");
+			recordingType.getMethod("setDestination", Path.class).invoke(recording, destination.getAbsoluteFile().toPath());
+			recordingType.getMethod("setDumpOnExit", boolean.class).invoke(recording, true);
+			recordingType.getMethod("start").invoke(recording);
+			logger.info("Flight recording to {}", destination.getAbsolutePath());
+			return true;
+		} catch (Throwable e)
+		{
+			logger.warn("Flight recording requires JDK 11 or later or OpenJDK 8u262 or later, running without it: {}", e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Names the recording of this JVM after its process id, so the instances of an FMU extracted once do not overwrite
+	 * each other's recordings
+	 * 
+	 * @param file
+	 *            the recording file given to ShmServer
+	 * @return the file with the process id appended to its base name
+	 */
+	static File getRecordingFile(String file)
+	{
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		String pid = name.indexOf('@') > 0 ? name.substring(0, name.indexOf('@')) : name;
+		int dot = file.lastIndexOf('.');
+		return new File(dot > 0 ? file.substring(0, dot) + "-" + pid
+				+ file.substring(dot) : file + "-" + pid);
+	}
+
+	/**
+	 * An event type with its fields
+	 */
+	static final class Type
+	{
+		private final MethodHandle newEvent;
+
+		Type(String name, String label, Class<?>[] types, String... fields)
+		{
+			MethodHandle factory = null;
+			if (IS_INITIALIZED != null)
+			{
+				try
+				{
+					Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+					Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+					Constructor<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+
+					List<Object> annotations = new Vector<Object>();
+					annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+					annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+					annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {
+							"Crescendo", "FMI" }));
+
+					List<Object> descriptors = new Vector<Object>();
+					for (int i = 0; i < fields.length; i++)
+					{
+						descriptors.add(valueDescriptor.newInstance(types[i], fields[i]));
+					}
+
+					Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+					Object instance = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, descriptors);
+					factory = MethodHandles.publicLookup().unreflect(eventFactory.getMethod("newEvent")).bindTo(instance);
+				} catch (Throwable e)
+				{
+					logger.debug("Unable to define flight recorder event: " + name, e);
+				}
+			}
+			newEvent = factory;
+		}
+
+		/**
+		 * Starts an event
+		 * 
+		 * @return the event or null if the flight recorder is not in use
+		 */
+		Object begin()
+		{
+			if (newEvent == null)
+			{
+				return null;
+			}
+			try
+			{
+				if (!(boolean) IS_INITIALIZED.invoke())
+				{
+					return null;
+				}
+				Object event = newEvent.invoke();
+				BEGIN.invoke(event);
+				return event;
+			} catch (Throwable e)
+			{
+				return null;
+			}
+		}
+
+		/**
+		 * Ends and commits an event if the recording wants it
+		 * 
+		 * @param event
+		 *            the event from {@link #begin()}
+		 * @param values
+		 *            the field values in the order of the definition
+		 */
+		void commit(Object event, Object... values)
+		{
+			try
+			{
+				END.invoke(event);
+				if ((boolean) SHOULD_COMMIT.invoke(event))
+				{
+					for (int i = 0; i < values.length; i++)
+					{
+						SET.invoke(event, i, values[i]);
+					}
+					COMMIT.invoke(event);
+				}
+			} catch (Throwable e)
+			{
+				logger.debug("Unable to commit flight recorder event", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.google.protobuf.AbstractMessage;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2GetBooleanReply;
+import com.lausdahl.examples.Service.Fmi2GetIntegerReply;
+import com.lausdahl.examples.Service.Fmi2GetRealReply;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2GetStringReply;
+import com.lausdahl.examples.Service.Fmi2SetBooleanRequest;
+import com.lausdahl.examples.Service.Fmi2SetIntegerRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2SetStringRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+
+/**
+ * A complete co-simulation step in one message: the changed inputs, the step and the outputs to return, handled by
+ * {@link CrescendoFmu#CombinedStep(Request)}. The messages are composed of the existing service messages and are
+ * encoded in the protobuf wire format, equal to the following definition:
+ * 
+ * <pre>
+ * message Fmi2CombinedStepRequest {
+ *   Fmi2SetRealRequest setReal = 1;
+ *   Fmi2SetIntegerRequest setInteger = 2;
+ *   Fmi2SetBooleanRequest setBoolean = 3;
+ *   Fmi2SetStringRequest setString = 4;
+ *   Fmi2DoStepRequest doStep = 5;
+ *   Fmi2GetRequest getReal = 6;
+ *   Fmi2GetRequest getInteger = 7;
+ *   Fmi2GetRequest getBoolean = 8;
+ *   Fmi2GetRequest getString = 9;
+ * }
+ * 
+ * message Fmi2CombinedStepReply {
+ *   Fmi2StatusReply status = 1;
+ *   Fmi2GetRealReply real = 2;
+ *   Fmi2GetIntegerReply integer = 3;
+ *   Fmi2GetBooleanReply boolean = 4;
+ *   Fmi2GetStringReply string = 5;
+ *   Fmi2StatusReply doStepStatus = 6;
+ * }
+ * </pre>
+ * 
+ * Absent fields are null. The message is only served by the socket transport as
+ * {@link org.crescendo.fmi.transport.Call#CombinedStep}. The shared memory protocol of the native wrapper has a fixed
+ * set of messages without it, so a master using the exported wrapper still makes a round trip per call.
+ */
+public final class Fmi2CombinedStep
+{
+	private Fmi2CombinedStep()
+	{
+	}
+
+	public static final class Request
+	{
+		public Fmi2SetRealRequest setReal;
+		public Fmi2SetIntegerRequest setInteger;
+		public Fmi2SetBooleanRequest setBoolean;
+		public Fmi2SetStringRequest setString;
+		public Fmi2DoStepRequest doStep;
+		public Fmi2GetRequest getReal;
+		public Fmi2GetRequest getInteger;
+		public Fmi2GetRequest getBoolean;
+		public Fmi2GetRequest getString;
+
+		public byte[] toByteArray() throws IOException
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+			write(out, 1, setReal);
+			write(out, 2, setInteger);
+			write(out, 3, setBoolean);
+			write(out, 4, setString);
+			write(out, 5, doStep);
+			write(out, 6, getReal);
+			write(out, 7, getInteger);
+			write(out, 8, getBoolean);
+			write(out, 9, getString);
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		public static Request parseFrom(byte[] data) throws IOException
+		{
+			Request request = new Request();
+			CodedInputStream in = CodedInputStream.newInstance(data);
+			int tag;
+			while ((tag = in.readTag()) != 0)
+			{
+				switch (WireFormat.getTagFieldNumber(tag))
+				{
+					case 1:
+						request.setReal = Fmi2SetRealRequest.parseFrom(in.readByteArray());
+						break;
+					case 2:
+						request.setInteger = Fmi2SetIntegerRequest.parseFrom(in.readByteArray());
+						break;
+					case 3:
+						request.setBoolean = Fmi2SetBooleanRequest.parseFrom(in.readByteArray());
+						break;
+					case 4:
+						request.setString = Fmi2SetStringRequest.parseFrom(in.readByteArray());
+						break;
+					case 5:
+						request.doStep = Fmi2DoStepRequest.parseFrom(in.readByteArray());
+						break;
+					case 6:
+						request.getReal = Fmi2GetRequest.parseFrom(in.readByteArray());
+						break;
+					case 7:
+						request.getInteger = Fmi2GetRequest.parseFrom(in.readByteArray());
+						break;
+					case 8:
+						request.getBoolean = Fmi2GetRequest.parseFrom(in.readByteArray());
+						break;
+					case 9:
+						request.getString = Fmi2GetRequest.parseFrom(in.readByteArray());
+						break;
+					default:
+						in.skipField(tag);
+						break;
+				}
+			}
+			return request;
+		}
+	}
+
+	public static final class Reply
+	{
+		public Fmi2StatusReply status;
+		public Fmi2GetRealReply real;
+		public Fmi2GetIntegerReply integer;
+		public Fmi2GetBooleanReply bool;
+		public Fmi2GetStringReply string;
+		/**
+		 * the status of the step, null if it was not run
+		 */
+		public Fmi2StatusReply doStepStatus;
+
+		public byte[] toByteArray() throws IOException
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+			write(out, 1, status);
+			write(out, 2, real);
+			write(out, 3, integer);
+			write(out, 4, bool);
+			write(out, 5, string);
+			write(out, 6, doStepStatus);
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		public static Reply parseFrom(byte[] data) throws IOException
+		{
+			Reply reply = new Reply();
+			CodedInputStream in = CodedInputStream.newInstance(data);
+			int tag;
+			while ((tag = in.readTag()) != 0)
+			{
+				switch (WireFormat.getTagFieldNumber(tag))
+				{
+					case 1:
+						reply.status = Fmi2StatusReply.parseFrom(in.readByteArray());
+						break;
+					case 2:
+						reply.real = Fmi2GetRealReply.parseFrom(in.readByteArray());
+						break;
+					case 3:
+						reply.integer = Fmi2GetIntegerReply.parseFrom(in.readByteArray());
+						break;
+					case 4:
+						reply.bool = Fmi2GetBooleanReply.parseFrom(in.readByteArray());
+						break;
+					case 5:
+						reply.string = Fmi2GetStringReply.parseFrom(in.readByteArray());
+						break;
+					case 6:
+						reply.doStepStatus = Fmi2StatusReply.parseFrom(in.readByteArray());
+						break;
+					default:
+						in.skipField(tag);
+						break;
+				}
+			}
+			return reply;
+		}
+	}
+
+	private static void write(CodedOutputStream out, int field,
+			AbstractMessage message) throws IOException
+	{
+		if (message != null)
+		{
+			out.writeByteArray(field, message.toByteArray());
+		}
+	}
+}
@@ -21,7 +21,10 @@
  */
 package org.crescendo.fmi;
 
+import java.io.File;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.apache.commons.lang3.StringUtils;
@@ -36,15 +39,23 @@ import org.overture.ast.definitions.PDefinition;
 import org.overture.ast.definitions.SClassDefinition;
 import org.overture.ast.expressions.ANewExp;
 import org.overture.ast.expressions.PExp;
+import org.overture.ast.factory.AstFactory;
+import org.overture.ast.intf.lex.ILexLocation;
+import org.overture.ast.lex.LexBooleanToken;
+import org.overture.ast.lex.LexIntegerToken;
+import org.overture.ast.lex.LexLocation;
+import org.overture.ast.lex.LexRealToken;
+import org.overture.ast.lex.LexStringToken;
+import org.overture.interpreter.assistant.IInterpreterAssistantFactory;
 import org.overture.interpreter.runtime.Interpreter;
-import org.overture.interpreter.runtime.ValueException;
 import org.overture.interpreter.runtime.state.ASystemClassDefinitionRuntime;
+import org.overture.interpreter.values.BooleanValue;
+import org.overture.interpreter.values.IntegerValue;
 import org.overture.interpreter.values.NameValuePairList;
 import org.overture.interpreter.values.RealValue;
+import org.overture.interpreter.values.SeqValue;
 import org.overture.interpreter.values.UndefinedValue;
 import org.overture.interpreter.values.Value;
-import org.overture.parser.util.ParserUtil;
-import org.overture.parser.util.ParserUtil.ParserResult;
 import org.overture.typechecker.util.TypeCheckerUtil;
 import org.overture.typechecker.util.TypeCheckerUtil.TypeCheckResult;
 
@@ -63,6 +74,68 @@ public class FmiSimulationManager extends SimulationManager
 		return (FmiSimulationManager) _instance;
 	}
 
+	/**
+	 * the binding plan of the loaded model
+	 */
+	private BindingPlan plan;
+
+	/**
+	 * the output values and input value infos indexed by value reference, resolved once and reused until the object
+	 * graph behind them is replaced
+	 */
+	private Value[] outputHandles;
+	private ValueInfo[] inputHandles;
+	private NameValuePairList handleMembers;
+	private List<String> handleRootNames;
+	private Value[] handleRoots;
+
+	/**
+	 * Loads the specification and binds it to the ports described by the state cache
+	 * 
+	 * @param specfiles
+	 *            the specification files
+	 * @param state
+	 *            the state cache holding the links and binding plan
+	 * @param outputDir
+	 *            the output directory
+	 * @param baseDirFile
+	 *            the base directory
+	 * @param disableRtLog
+	 *            disable the real-time log
+	 * @param disableCoverage
+	 *            disable coverage recording
+	 * @param disableOptimization
+	 *            disable interpreter optimizations
+	 * @throws RemoteSimulationException
+	 *             thrown if the specification cannot be loaded
+	 */
+	public void load(List<File> specfiles, StateCache state, File outputDir,
+			File baseDirFile, boolean disableRtLog, boolean disableCoverage,
+			boolean disableOptimization) throws RemoteSimulationException
+	{
+		this.plan = state.plan;
+		this.outputHandles = null;
+		load(specfiles, state.links, outputDir, baseDirFile, disableRtLog, disableCoverage, disableOptimization);
+	}
+
+	/**
+	 * @return the type checked classes of the loaded model
+	 */
+	public List<SClassDefinition> getCheckedClasses()
+	{
+		return controller.getInterpreter().getClasses();
+	}
+
+	/**
+	 * @return the next schedulable action time of the VDM-RT scheduler, in internal clock units. It is the earliest
+	 *         release of a periodic thread or completion of a timed operation, as reported by the scheduler when it
+	 *         last waited for a step
+	 */
+	public synchronized long getNextSchedulableActionTime()
+	{
+		return nextSchedulableActionTime;
+	}
+
 	/**
 	 * FMI step method using basic named values
 	 * 
@@ -70,46 +143,71 @@ public class FmiSimulationManager extends SimulationManager
 	 *            the time to step until
 	 * @param inputs
 	 *            the inputs needed for the step
-	 * @return a list of outputs from the step
+	 * @param result
+	 *            receives the time reached and the outputs of the step
 	 * @throws RemoteSimulationException
 	 *             thrown if an internal error occur
 	 */
-	public synchronized List<NamedValue> step(long outputTime,
-			List<NamedValue> inputs) throws RemoteSimulationException
+	public synchronized void step(long outputTime, List<NamedValue> inputs,
+			FmiStepResult result) throws RemoteSimulationException
 	{
 		checkMainContext();
 
-		for (NamedValue p : inputs)
+		NameValuePairList members = ASystemClassDefinitionRuntime.getSystemMembers();
+		if (!handlesValid(members))
+		{
+			resolveHandles(members);
+		}
+
+		for (int i = 0; i < inputs.size(); i++)
 		{
-			setScalarValue(p.name, getValue(p.name), p.value);
+			NamedValue p = inputs.get(i);
+			setScalarValue(p.name, getInputHandle(p), p.value);
 		}
 
 		doInternalStep(outputTime, null);// no events
-		
-		List<NamedValue> outputs = new Vector<NamedValue>();
-		outputs.add(new NamedValue("time", new RealValue(nextSchedulableActionTime), -1));
 
-		for (String key : links.getOutputs().keySet())
+		if (!handlesValid(members))
 		{
-			try
-			{
-				NamedValue value = getSimpleOutput(key);
-				if (value != null)
-				{
-					outputs.add(value);
-				} else
-				{
-					throw new RemoteSimulationException("Faild to get output parameter, output not bound for: "
-							+ key);
-				}
-			} catch (ValueException e)
+			resolveHandles(members);
+		}
+
+		final BindingPlan.Ports ports = plan.outputs;
+		for (int i = 0; i < ports.size(); i++)
+		{
+			Value value = outputHandles[ports.refs[i]];
+
+			if (value.deref() instanceof UndefinedValue)
 			{
-				logger.error(e.getMessage(),e);
-				throw new RemoteSimulationException("Faild to get output parameter", e);
+				throw new RemoteSimulationException("Value: " + ports.names[i]
+						+ " not initialized");
 			}
 		}
 
-		return outputs;
+		result.time = nextSchedulableActionTime;
+		result.outputs = outputHandles;
+	}
+
+	/**
+	 * Gets the value info used to set an input. The info is looked up on first use and then reused until the handles
+	 * are resolved again
+	 * 
+	 * @param input
+	 *            the input, its id is the value reference
+	 * @return the value info
+	 * @throws RemoteSimulationException
+	 */
+	private ValueInfo getInputHandle(NamedValue input)
+			throws RemoteSimulationException
+	{
+		int index = (int) input.id;
+		ValueInfo info = inputHandles[index];
+		if (info == null)
+		{
+			info = getValue(input.name);
+			inputHandles[index] = info;
+		}
+		return info;
 	}
 
 	/**
@@ -143,134 +241,293 @@ public class FmiSimulationManager extends SimulationManager
 	}
 
 	/**
-	 * gets a single NamedValue based on its name
+	 * Checks that the handles were resolved against the current system members and that none of the objects the ports
+	 * are reached through has been replaced
 	 * 
-	 * @param name
-	 * @return
-	 * @throws ValueException
+	 * @param members
+	 *            the current system members
+	 * @return true if the handles can be used
 	 * @throws RemoteSimulationException
 	 */
-	private NamedValue getSimpleOutput(String name) throws ValueException,
-			RemoteSimulationException
+	private boolean handlesValid(NameValuePairList members)
+			throws RemoteSimulationException
 	{
-		NameValuePairList list = ASystemClassDefinitionRuntime.getSystemMembers();
-		if (list != null && links.getLinks().containsKey(name))
+		if (outputHandles == null || members == null
+				|| members != handleMembers)
 		{
-			List<String> varName = links.getQualifiedName(name);
+			return false;
+		}
 
-			Value value = VDMClassHelper.digForVariable(varName.subList(1, varName.size()), list).value;
+		for (int i = 0; i < handleRootNames.size(); i++)
+		{
+			if (dig(handleRootNames.subList(i, i + 1), members).deref() != handleRoots[i])
+			{
+				logger.debug("Port root '{}' replaced, resolving handles", handleRootNames.get(i));
+				return false;
+			}
+		}
+		return true;
+	}
 
-			if (value.deref() instanceof UndefinedValue)
+	/**
+	 * Resolves the values of all outputs by their qualified names. The values are the updatable values held by the
+	 * objects so they reflect the state of the model until the objects themselves are replaced. The input value infos
+	 * are cleared and looked up again on first use
+	 * 
+	 * @param members
+	 *            the current system members
+	 * @throws RemoteSimulationException
+	 */
+	private void resolveHandles(NameValuePairList members)
+			throws RemoteSimulationException
+	{
+		if (members == null)
+		{
+			throw new RemoteSimulationException("Unable to get outputs, system not initialized");
+		}
+
+		Value[] handles = new Value[plan.types.length];
+		List<String> rootNames = new Vector<String>();
+
+		final BindingPlan.Ports ports = plan.outputs;
+		for (int i = 0; i < ports.size(); i++)
+		{
+			List<String> varName = links.getQualifiedName(ports.names[i]);
+			List<String> path = varName.subList(1, varName.size());
+
+			handles[ports.refs[i]] = dig(path, members);
+
+			if (!rootNames.contains(path.get(0)))
 			{
-				throw new RemoteSimulationException("Value: " + name
-						+ " not initialized");
+				rootNames.add(path.get(0));
 			}
+		}
+
+		final BindingPlan.Ports inputPorts = plan.inputs;
+		for (int i = 0; i < inputPorts.size(); i++)
+		{
+			List<String> varName = links.getQualifiedName(inputPorts.names[i]);
+			if (varName.size() > 1 && !rootNames.contains(varName.get(1)))
+			{
+				rootNames.add(varName.get(1));
+			}
+		}
+
+		Value[] roots = new Value[rootNames.size()];
+		for (int i = 0; i < roots.length; i++)
+		{
+			roots[i] = dig(rootNames.subList(i, i + 1), members).deref();
+		}
 
-			return new NamedValue(name, value, -1);
+		logger.debug("Resolved {} output handles through: {}", ports.size(), rootNames);
 
+		this.outputHandles = handles;
+		this.inputHandles = new ValueInfo[plan.types.length];
+		this.handleMembers = members;
+		this.handleRootNames = rootNames;
+		this.handleRoots = roots;
+	}
+
+	/**
+	 * Looks up a value by its path from the system members
+	 * 
+	 * @param path
+	 *            the names leading to the value
+	 * @param members
+	 *            the system members
+	 * @return the value
+	 * @throws RemoteSimulationException
+	 *             if the value does not exist
+	 */
+	private static Value dig(List<String> path, NameValuePairList members)
+			throws RemoteSimulationException
+	{
+		ValueInfo info = VDMClassHelper.digForVariable(path, members);
+		if (info == null || info.value == null)
+		{
+			throw new RemoteSimulationException("Value: "
+					+ StringUtils.join(path, ".") + " not found");
 		}
-		throw new RemoteSimulationException("Value: " + name + " not found");
+		return info.value;
 	}
 
 	/**
-	 * Sets design parameters. All class definitions in the loaded model are searched and existing value definitions are
-	 * Extracted. If their name match the parameter the LexRealToken value is updated by reflection (value is final)
-	 * with the new value from the design parameter
+	 * Sets a design parameter, see {@link #setParameters(List)}
 	 * 
 	 * @param parameter
-	 *            A list of Maps containing (name,value) keys and {@code name->String}, {@code value->Double}
-	 * @return false if any error occur else true
+	 *            the parameter named by its value reference
+	 * @return true
 	 * @throws RemoteSimulationException
-	 *             thrown if an internal error occur
+	 *             thrown if the parameter is not linked or its value cannot be set
 	 */
 	public Boolean setParameter(NamedValue parameter)
 			throws RemoteSimulationException
 	{
+		List<NamedValue> parameters = new Vector<NamedValue>();
+		parameters.add(parameter);
+		setParameters(parameters);
+		return true;
+	}
+
+	/**
+	 * Sets design parameters. The value definitions of the loaded classes are indexed by class and pattern name once
+	 * for all the parameters. The expression of the value definition bound to a parameter must be a new expression, its
+	 * first argument is replaced by a literal of the parameter value. Values without a literal form are printed and
+	 * parsed
+	 * 
+	 * @param parameters
+	 *            the parameters named by their value references
+	 * @throws RemoteSimulationException
+	 *             thrown if a parameter is not linked or its value cannot be set
+	 */
+	public void setParameters(List<NamedValue> parameters)
+			throws RemoteSimulationException
+	{
+		if (parameters.isEmpty())
+		{
+			return;
+		}
+
+		Object event = FlightEvents.PARAMETERS.begin();
 		try
 		{
-			boolean found = false;
-			String parameterName = parameter.name;
+			Map<String, Map<String, AValueDefinition>> index = indexValueDefinitions();
 
-			if (!links.getSharedDesignParameters().keySet().contains(parameterName))
+			for (NamedValue parameter : parameters)
 			{
-				logger.error("Tried to set unlinked shared design parameter: "
-						+ parameterName);
-				throw new RemoteSimulationException("Tried to set unlinked shared design parameter: "
-						+ parameterName);
-			}
-			@SuppressWarnings("deprecation")
-			StringPair vName = links.getBoundVariable(parameterName);
+				String parameterName = parameter.name;
 
-			for (SClassDefinition cd : controller.getInterpreter().getClasses())
-			{
-				if (!cd.getName().getName().equals(vName.instanceName))
+				if (!links.getSharedDesignParameters().keySet().contains(parameterName))
 				{
-					// wrong class
-					continue;
+					logger.error("Tried to set unlinked shared design parameter: "
+							+ parameterName);
+					throw new RemoteSimulationException("Tried to set unlinked shared design parameter: "
+							+ parameterName);
 				}
-				for (PDefinition def : cd.getDefinitions())
-				{
-					if (def instanceof AValueDefinition)
-					{
-						AValueDefinition vDef = (AValueDefinition) def;
-						if (vDef.getPattern().toString().equals(vName.variableName)
-								&& Interpreter.getInstance().getAssistantFactory().createPDefinitionAssistant().isValueDefinition(vDef))
-						{
-							found = true;
-							ParserResult<PExp> res = ParserUtil.parseExpression(parameter.value.toString());
-
-							if (res.errors.isEmpty())
-							{
-								if (vDef.getExpression() instanceof ANewExp)
-								{
-									ANewExp newExp = (ANewExp) vDef.getExpression();
-									if (newExp.getArgs().isEmpty())
-									{
-										TypeCheckResult<PExp> tcRes = TypeCheckerUtil.typeCheckExpression(parameter.value.toString());
-										if (tcRes.errors.isEmpty())
-										{
-											newExp.getArgs().add(tcRes.result);
-										} else
-											throw new RemoteSimulationException("Unable to parse parameter: "
-													+ parameter);
-									} else
-									{
-										newExp.getArgs().set(0, res.result);
-									}
-								}
-								// vDef.setExpression(res.result);
-							} else
-							{
-								throw new RemoteSimulationException("Unable to parse initial parameter expression: '"
-										+ parameter.value
-										+ "' "
-										+ StringUtils.join(res.errors, ","));
-							}
-						}
-					}
+				@SuppressWarnings("deprecation")
+				StringPair vName = links.getBoundVariable(parameterName);
 
+				Map<String, AValueDefinition> values = index.get(vName.instanceName);
+				if (values == null)
+				{
+					// no such class
+					continue;
 				}
-				if (!found)
+
+				AValueDefinition vDef = values.get(vName.variableName);
+				if (vDef == null)
 				{
 					logger.error("Tried to set unlinked shared design parameter: "
 							+ parameterName);
 					throw new RemoteSimulationException("Tried to set unlinked shared design parameter: "
 							+ parameterName);
 				}
+
+				if (vDef.getExpression() instanceof ANewExp)
+				{
+					ANewExp newExp = (ANewExp) vDef.getExpression();
+					PExp exp = toExpression(parameter);
+					if (newExp.getArgs().isEmpty())
+					{
+						newExp.getArgs().add(exp);
+					} else
+					{
+						newExp.getArgs().set(0, exp);
+					}
+				}
+			}
+
+			if (event != null)
+			{
+				FlightEvents.PARAMETERS.commit(event, parameters.size());
 			}
 		} catch (RemoteSimulationException e)
 		{
 			throw e;
 		} catch (Exception e)
 		{
-			logger.error(e.getMessage(),e);
-			if (e instanceof RemoteSimulationException)
+			logger.error(e.getMessage(), e);
+			throw new RemoteSimulationException("Internal error in set design parameters", e);
+		}
+	}
+
+	/**
+	 * @return the value definitions of the loaded classes by class name and pattern name
+	 */
+	private Map<String, Map<String, AValueDefinition>> indexValueDefinitions()
+	{
+		Map<String, Map<String, AValueDefinition>> index = new HashMap<String, Map<String, AValueDefinition>>();
+		IInterpreterAssistantFactory af = Interpreter.getInstance().getAssistantFactory();
+
+		for (SClassDefinition cd : controller.getInterpreter().getClasses())
+		{
+			Map<String, AValueDefinition> values = index.get(cd.getName().getName());
+			if (values == null)
 			{
-				throw (RemoteSimulationException) e;
+				values = new HashMap<String, AValueDefinition>();
+				index.put(cd.getName().getName(), values);
+			}
+
+			for (PDefinition def : cd.getDefinitions())
+			{
+				if (def instanceof AValueDefinition
+						&& af.createPDefinitionAssistant().isValueDefinition(def))
+				{
+					AValueDefinition vDef = (AValueDefinition) def;
+					String name = vDef.getPattern().toString();
+					if (!values.containsKey(name))
+					{
+						values.put(name, vDef);
+					}
+				}
 			}
-			throw new RemoteSimulationException("Internal error in set design parameters", e);
 		}
+		return index;
+	}
 
-		return true;
+	/**
+	 * Creates the expression of a parameter value. Booleans, numbers and strings become literals, anything else is
+	 * printed, parsed and type checked
+	 * 
+	 * @param parameter
+	 *            the parameter
+	 * @return the expression
+	 * @throws RemoteSimulationException
+	 *             if the printed value cannot be parsed
+	 * @throws Exception
+	 *             if the printed value cannot be type checked
+	 */
+	private static PExp toExpression(NamedValue parameter) throws Exception
+	{
+		Value value = parameter.value;
+		ILexLocation location = new LexLocation();
+
+		if (value instanceof BooleanValue)
+		{
+			return AstFactory.newABooleanConstExp(new LexBooleanToken(value.boolValue(null), location));
+		} else if (value instanceof IntegerValue)
+		{
+			long number = value.intValue(null);
+			PExp literal = AstFactory.newAIntLiteralExp(new LexIntegerToken(Math.abs(number), location));
+			return number < 0 ? AstFactory.newAUnaryMinusUnaryExp(location, literal)
+					: literal;
+		} else if (value instanceof RealValue)
+		{
+			double number = value.realValue(null);
+			PExp literal = AstFactory.newARealLiteralExp(new LexRealToken(Math.abs(number), location));
+			return number < 0 ? AstFactory.newAUnaryMinusUnaryExp(location, literal)
+					: literal;
+		} else if (value instanceof SeqValue)
+		{
+			return AstFactory.newAStringLiteralExp(new LexStringToken(value.stringValue(null), location));
+		}
+
+		TypeCheckResult<PExp> tcRes = TypeCheckerUtil.typeCheckExpression(value.toString());
+		if (!tcRes.errors.isEmpty())
+		{
+			throw new RemoteSimulationException("Unable to parse initial parameter expression: '"
+					+ value + "' " + StringUtils.join(tcRes.errors, ","));
+		}
+		return tcRes.result;
 	}
 }
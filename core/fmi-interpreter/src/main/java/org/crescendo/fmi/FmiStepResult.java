@@ -0,0 +1,42 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import org.overture.interpreter.values.Value;
+
+/**
+ * The result of a single {@link FmiSimulationManager#step(long, java.util.List, FmiStepResult)}. The instance is owned
+ * by the caller and reused for every step so the step path does not allocate.
+ */
+public class FmiStepResult
+{
+	/**
+	 * the next schedulable action time of the VDM scheduler, in internal clock units
+	 */
+	public long time;
+
+	/**
+	 * the output values indexed by value reference. The array is owned by the simulation manager and only valid until
+	 * the next step
+	 */
+	public Value[] outputs;
+}
@@ -0,0 +1,224 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts and latency histograms of the FMI calls of an instance, and the split of the steps into interpreter time and
+ * cache sync time. Recording does not allocate so it is always on. The calls are recorded where they are dispatched,
+ * see {@link MeteredService} and {@link org.crescendo.fmi.transport.SocketTransport}, the steps by the instance. The
+ * metrics are exposed over JMX while the instance is instantiated and are logged when it is freed
+ */
+public class FmuMetrics implements FmuMetricsMXBean
+{
+	final static Logger logger = LoggerFactory.getLogger(FmuMetrics.class);
+
+	/**
+	 * What is measured
+	 */
+	public enum Kind
+	{
+		/**
+		 * the steps run, idle steps returning at once are not recorded
+		 */
+		DoStep,
+		/**
+		 * the Get and Set calls by type, the bulk calls are recorded with the calls of their type
+		 */
+		GetReal, GetInteger, GetBoolean, GetString, SetReal, SetInteger,
+		SetBoolean, SetString, Instantiate, ExitInitializationMode,
+		/**
+		 * the time spent in the interpreter by a step
+		 */
+		Interpreter,
+		/**
+		 * the time a step spends collecting the inputs and writing the outputs of the cache
+		 */
+		CacheSync
+	}
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Kind.values().length];
+
+	private ObjectName name;
+
+	public FmuMetrics()
+	{
+		for (int i = 0; i < histograms.length; i++)
+		{
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Records the time since a {@link System#nanoTime()}
+	 */
+	public void record(Kind kind, long started)
+	{
+		histograms[kind.ordinal()].record(System.nanoTime() - started);
+	}
+
+	/**
+	 * Records a duration
+	 */
+	void recordNanos(Kind kind, long nanos)
+	{
+		histograms[kind.ordinal()].record(nanos);
+	}
+
+	LatencyHistogram get(Kind kind)
+	{
+		return histograms[kind.ordinal()];
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, failures are logged
+	 * 
+	 * @param sessionName
+	 *            the session of the instance
+	 */
+	void register(String sessionName)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("org.crescendo.fmi:type=FmuMetrics,name="
+					+ ObjectName.quote(sessionName));
+			if (server.isRegistered(objectName))
+			{
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+			name = objectName;
+		} catch (JMException e)
+		{
+			logger.warn("Unable to register the FMU metrics", e);
+		}
+	}
+
+	void unregister()
+	{
+		if (name == null)
+		{
+			return;
+		}
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e)
+		{
+			logger.debug("Unable to unregister the FMU metrics", e);
+		}
+		name = null;
+	}
+
+	private static double micros(double nanos)
+	{
+		return nanos / 1000;
+	}
+
+	@Override
+	public Map<String, Long> getCounts()
+	{
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (Kind kind : Kind.values())
+		{
+			map.put(kind.name(), get(kind).getCount());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getMeanMicros()
+	{
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Kind kind : Kind.values())
+		{
+			map.put(kind.name(), micros(get(kind).getMean()));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getMedianMicros()
+	{
+		return getQuantileMicros(0.5);
+	}
+
+	@Override
+	public Map<String, Double> getP99Micros()
+	{
+		return getQuantileMicros(0.99);
+	}
+
+	private Map<String, Double> getQuantileMicros(double quantile)
+	{
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Kind kind : Kind.values())
+		{
+			map.put(kind.name(), micros(get(kind).getValueAtQuantile(quantile)));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getMaxMicros()
+	{
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Kind kind : Kind.values())
+		{
+			map.put(kind.name(), micros(get(kind).getMax()));
+		}
+		return map;
+	}
+
+	@Override
+	public String dump()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-24s %10s %12s %12s %12s %12s%n", "[us]", "count", "mean", "median", "p99", "max"));
+		for (Kind kind : Kind.values())
+		{
+			LatencyHistogram histogram = get(kind);
+			sb.append(String.format("%-24s %10d %12.1f %12.1f %12.1f %12.1f%n", kind.name(), histogram.getCount(), micros(histogram.getMean()), micros(histogram.getValueAtQuantile(0.5)), micros(histogram.getValueAtQuantile(0.99)), micros(histogram.getMax())));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void reset()
+	{
+		for (LatencyHistogram histogram : histograms)
+		{
+			histogram.reset();
+		}
+	}
+}
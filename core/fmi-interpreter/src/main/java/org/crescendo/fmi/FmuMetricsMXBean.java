@@ -0,0 +1,51 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.util.Map;
+
+/**
+ * The call metrics of an FMU instance, registered as {@code org.crescendo.fmi:type=FmuMetrics,name=<session>}. The
+ * maps are keyed by {@link FmuMetrics.Kind} name and the latencies are in microseconds
+ */
+public interface FmuMetricsMXBean
+{
+	Map<String, Long> getCounts();
+
+	Map<String, Double> getMeanMicros();
+
+	Map<String, Double> getMedianMicros();
+
+	Map<String, Double> getP99Micros();
+
+	Map<String, Double> getMaxMicros();
+
+	/**
+	 * @return a table of all metrics
+	 */
+	String dump();
+
+	/**
+	 * Clears the recorded metrics
+	 */
+	void reset();
+}
@@ -0,0 +1,291 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import sun.misc.Unsafe;
+
+/**
+ * A memory mapped copy of the reals, integers and booleans of a {@link StateCache}, shared with the native wrapper so
+ * it can serve Get and Set calls without a message to the JVM. Strings are not mapped. The file is
+ * {@code <java.io.tmpdir>/crescendo-<shared memory key>.state} with the following little-endian layout:
+ * 
+ * <pre>
+ * offset  size         content
+ *  0      4            magic 0x43525343 ("CRSC")
+ *  4      4            layout version, 1
+ *  8      8            sequence counter
+ * 16      4            number of reals R
+ * 20      4            number of integers I
+ * 24      4            number of booleans B
+ * 28      4            reserved
+ * 32      8 * R        reals, indexed by value reference
+ * 32+8R   4 * I        integers
+ * 32+8R+4I B           booleans, 0 or 1
+ * </pre>
+ * 
+ * The sequence counter is a seqlock. A writer makes it odd, writes the values and makes it even again, with a store
+ * fence after each counter update. A reader reads an even counter, copies the values, and retries if the counter
+ * changed meanwhile, with a load fence on either side of the copy. The region is only exchanged at step boundaries:
+ * the JVM writes when it is created, after every step and on Reset, the wrapper writes the values it sets between steps
+ * and the JVM reads them at the start of the next DoStep. The two sides never write at the same time since the master
+ * calls the FMU from one thread.
+ * <p>
+ * Experimental: the shipped native wrapper does not map the region yet, so only the JVM side of the protocol exists
+ * and the region is off unless {@code crescendo.fmi.mappedState} is set.
+ */
+final class MappedStateRegion
+{
+	static final int MAGIC = 0x43525343;
+	static final int VERSION = 1;
+
+	static final int SEQUENCE = 8;
+	static final int HEADER_SIZE = 32;
+
+	/**
+	 * the fences ordering the plain stores and loads of the mapping, a volatile field does not order them
+	 */
+	private static final Unsafe UNSAFE;
+
+	static
+	{
+		try
+		{
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			UNSAFE = (Unsafe) field.get(null);
+		} catch (ReflectiveOperationException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final MappedByteBuffer buffer;
+	private final File file;
+
+	private final int realsOffset;
+	private final int integersOffset;
+	private final int booleansOffset;
+
+	private final DoubleBuffer realsView;
+	private final IntBuffer integersView;
+	private final ByteBuffer booleansView;
+
+	/**
+	 * the values are copied here and only applied to the cache once the copy is known to be consistent
+	 */
+	private final double[] reals;
+	private final int[] integers;
+	private final byte[] booleans;
+
+	/**
+	 * the counter after the last publish or load, while it is unchanged the wrapper has written nothing
+	 */
+	private long lastSequence;
+
+	private MappedStateRegion(File file, MappedByteBuffer buffer,
+			StateCache state)
+	{
+		this.file = file;
+		this.buffer = buffer;
+		this.realsOffset = HEADER_SIZE;
+		this.integersOffset = realsOffset + 8 * state.reals.length;
+		this.booleansOffset = integersOffset + 4 * state.integers.length;
+
+		this.realsView = view(realsOffset).asDoubleBuffer();
+		this.integersView = view(integersOffset).asIntBuffer();
+		this.booleansView = view(booleansOffset);
+
+		this.reals = new double[state.reals.length];
+		this.integers = new int[state.integers.length];
+		this.booleans = new byte[state.booleans.length];
+	}
+
+	/**
+	 * @return a little-endian view of the region from the offset
+	 */
+	private ByteBuffer view(int offset)
+	{
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return the region file of a session
+	 */
+	static File getFile(String sessionName)
+	{
+		return new File(System.getProperty("java.io.tmpdir"), "crescendo-"
+				+ sessionName + ".state");
+	}
+
+	/**
+	 * Creates the region sized for the cache and writes the header
+	 * 
+	 * @param file
+	 *            the region file, replaced if it exists
+	 * @param state
+	 *            the cache to mirror
+	 * @return the region
+	 * @throws IOException
+	 */
+	static MappedStateRegion create(File file, StateCache state)
+			throws IOException
+	{
+		int size = HEADER_SIZE + 8 * state.reals.length + 4
+				* state.integers.length + state.booleans.length;
+
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(0);
+			raf.setLength(size);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		file.deleteOnExit();
+
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putLong(SEQUENCE, 0);
+		buffer.putInt(16, state.reals.length);
+		buffer.putInt(20, state.integers.length);
+		buffer.putInt(24, state.booleans.length);
+
+		MappedStateRegion region = new MappedStateRegion(file, buffer, state);
+		region.publish(state);
+		return region;
+	}
+
+	/**
+	 * Writes the cache into the region
+	 */
+	void publish(StateCache state)
+	{
+		long sequence = buffer.getLong(SEQUENCE);
+		buffer.putLong(SEQUENCE, sequence + 1);
+		UNSAFE.storeFence();
+
+		for (int i = 0; i < state.reals.length; i++)
+		{
+			buffer.putDouble(realsOffset + 8 * i, state.reals[i]);
+		}
+		for (int i = 0; i < state.integers.length; i++)
+		{
+			buffer.putInt(integersOffset + 4 * i, state.integers[i]);
+		}
+		for (int i = 0; i < state.booleans.length; i++)
+		{
+			buffer.put(booleansOffset + i, (byte) (state.booleans[i] ? 1 : 0));
+		}
+
+		UNSAFE.storeFence();
+		buffer.putLong(SEQUENCE, sequence + 2);
+		lastSequence = sequence + 2;
+	}
+
+	/**
+	 * Reads the values written by the wrapper into the cache. Nothing is read unless the wrapper wrote since the last
+	 * publish or load. Only values that differ are written, so setting a parameter natively marks it pending like a Set
+	 * call does
+	 */
+	void load(StateCache state)
+	{
+		long sequence;
+		while (true)
+		{
+			sequence = buffer.getLong(SEQUENCE);
+			if (sequence == lastSequence)
+			{
+				return;
+			}
+			if ((sequence & 1) != 0)
+			{
+				Thread.yield();
+				continue;
+			}
+			UNSAFE.loadFence();
+
+			realsView.clear();
+			realsView.get(reals);
+			integersView.clear();
+			integersView.get(integers);
+			booleansView.clear();
+			booleansView.get(booleans);
+
+			UNSAFE.loadFence();
+			if (buffer.getLong(SEQUENCE) == sequence)
+			{
+				break;
+			}
+		}
+		lastSequence = sequence;
+
+		for (int i = 0; i < reals.length; i++)
+		{
+			if (Double.doubleToLongBits(reals[i]) != Double.doubleToLongBits(state.reals[i]))
+			{
+				state.markParameterPending(i);
+				state.reals[i] = reals[i];
+			}
+		}
+		for (int i = 0; i < integers.length; i++)
+		{
+			if (integers[i] != state.integers[i])
+			{
+				state.markParameterPending(i);
+				state.integers[i] = integers[i];
+			}
+		}
+		for (int i = 0; i < booleans.length; i++)
+		{
+			boolean value = booleans[i] != 0;
+			if (value != state.booleans[i])
+			{
+				state.markParameterPending(i);
+				state.booleans[i] = value;
+			}
+		}
+	}
+
+	/**
+	 * Removes the region file. The mapping stays valid until it is collected
+	 */
+	void close()
+	{
+		if (!file.delete())
+		{
+			file.deleteOnExit();
+		}
+	}
+}
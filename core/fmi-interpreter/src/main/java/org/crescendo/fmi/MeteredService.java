@@ -0,0 +1,243 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import org.intocps.java.fmi.service.IServiceProtocol;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.lausdahl.examples.Service.Fmi2BooleanStatusReply;
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2Empty;
+import com.lausdahl.examples.Service.Fmi2GetBooleanReply;
+import com.lausdahl.examples.Service.Fmi2GetIntegerReply;
+import com.lausdahl.examples.Service.Fmi2GetMaxStepSizeReply;
+import com.lausdahl.examples.Service.Fmi2GetRealReply;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2GetStringReply;
+import com.lausdahl.examples.Service.Fmi2InstantiateRequest;
+import com.lausdahl.examples.Service.Fmi2IntegerStatusReply;
+import com.lausdahl.examples.Service.Fmi2RealStatusReply;
+import com.lausdahl.examples.Service.Fmi2SetBooleanRequest;
+import com.lausdahl.examples.Service.Fmi2SetDebugLoggingRequest;
+import com.lausdahl.examples.Service.Fmi2SetIntegerRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2SetStringRequest;
+import com.lausdahl.examples.Service.Fmi2SetupExperimentRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+import com.lausdahl.examples.Service.Fmi2StatusRequest;
+import com.lausdahl.examples.Service.Fmi2StringStatusReply;
+
+/**
+ * Records the calls of the shared memory protocol in the {@link FmuMetrics} of the instance serving them. The steps are
+ * recorded by the instance, as an asynchronous step runs after DoStep returns
+ */
+public class MeteredService implements IServiceProtocol
+{
+	private final CrescendoFmu fmu;
+	private final FmuMetrics metrics;
+
+	public MeteredService(CrescendoFmu fmu)
+	{
+		this.fmu = fmu;
+		this.metrics = fmu.getMetrics();
+	}
+
+	@Override
+	public void error(String s)
+	{
+		fmu.error(s);
+	}
+
+	@Override
+	public void error(InvalidProtocolBufferException e)
+	{
+		fmu.error(e);
+	}
+
+	@Override
+	public Fmi2StatusReply DoStep(Fmi2DoStepRequest request)
+	{
+		return fmu.DoStep(request);
+	}
+
+	@Override
+	public Fmi2StatusReply Terminate(Fmi2Empty request)
+	{
+		return fmu.Terminate(request);
+	}
+
+	@Override
+	public Fmi2StatusReply EnterInitializationMode(Fmi2Empty request)
+	{
+		return fmu.EnterInitializationMode(request);
+	}
+
+	@Override
+	public Fmi2StatusReply ExitInitializationMode(Fmi2Empty request)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply reply = fmu.ExitInitializationMode(request);
+		metrics.record(FmuMetrics.Kind.ExitInitializationMode, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2GetRealReply GetReal(Fmi2GetRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2GetRealReply reply = fmu.GetReal(request);
+		metrics.record(FmuMetrics.Kind.GetReal, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2GetBooleanReply GetBoolean(Fmi2GetRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2GetBooleanReply reply = fmu.GetBoolean(request);
+		metrics.record(FmuMetrics.Kind.GetBoolean, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2GetIntegerReply GetInteger(Fmi2GetRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2GetIntegerReply reply = fmu.GetInteger(request);
+		metrics.record(FmuMetrics.Kind.GetInteger, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2GetStringReply GetString(Fmi2GetRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2GetStringReply reply = fmu.GetString(request);
+		metrics.record(FmuMetrics.Kind.GetString, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2GetMaxStepSizeReply GetMaxStepSize(Fmi2Empty request)
+	{
+		return fmu.GetMaxStepSize(request);
+	}
+
+	@Override
+	public Fmi2StatusReply Instantiate(Fmi2InstantiateRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply reply = fmu.Instantiate(request);
+		metrics.record(FmuMetrics.Kind.Instantiate, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2StatusReply Reset(Fmi2Empty request)
+	{
+		return fmu.Reset(request);
+	}
+
+	@Override
+	public Fmi2StatusReply SetDebugLogging(Fmi2SetDebugLoggingRequest request)
+	{
+		return fmu.SetDebugLogging(request);
+	}
+
+	@Override
+	public Fmi2StatusReply SetReal(Fmi2SetRealRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply reply = fmu.SetReal(request);
+		metrics.record(FmuMetrics.Kind.SetReal, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2StatusReply SetInteger(Fmi2SetIntegerRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply reply = fmu.SetInteger(request);
+		metrics.record(FmuMetrics.Kind.SetInteger, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2StatusReply SetBoolean(Fmi2SetBooleanRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply reply = fmu.SetBoolean(request);
+		metrics.record(FmuMetrics.Kind.SetBoolean, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2StatusReply SetString(Fmi2SetStringRequest request)
+	{
+		long started = System.nanoTime();
+		Fmi2StatusReply reply = fmu.SetString(request);
+		metrics.record(FmuMetrics.Kind.SetString, started);
+		return reply;
+	}
+
+	@Override
+	public Fmi2StatusReply SetupExperiment(Fmi2SetupExperimentRequest request)
+	{
+		return fmu.SetupExperiment(request);
+	}
+
+	@Override
+	public Fmi2StatusReply GetStatus(Fmi2StatusRequest request)
+	{
+		return fmu.GetStatus(request);
+	}
+
+	@Override
+	public Fmi2RealStatusReply GetRealStatus(Fmi2StatusRequest request)
+	{
+		return fmu.GetRealStatus(request);
+	}
+
+	@Override
+	public Fmi2IntegerStatusReply GetIntegerStatus(Fmi2StatusRequest request)
+	{
+		return fmu.GetIntegerStatus(request);
+	}
+
+	@Override
+	public Fmi2BooleanStatusReply GetBooleanStatus(Fmi2StatusRequest request)
+	{
+		return fmu.GetBooleanStatus(request);
+	}
+
+	@Override
+	public Fmi2StringStatusReply GetStringStatus(Fmi2StatusRequest request)
+	{
+		return fmu.GetStringStatus(request);
+	}
+
+	@Override
+	public void FreeInstantiate(Fmi2Empty request)
+	{
+		fmu.FreeInstantiate(request);
+	}
+}
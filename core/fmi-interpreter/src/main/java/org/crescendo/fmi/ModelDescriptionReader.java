@@ -0,0 +1,253 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.destecs.core.vdmlink.LinkInfo;
+import org.destecs.core.vdmlink.Links;
+
+/**
+ * Reads the links and the value reference ranges from a modelDescription.xml in a single streaming pass. The Overture
+ * vendor links may appear before or after the variables, so the variables are collected first and their link names
+ * are resolved at the end of the document.
+ */
+final class ModelDescriptionReader
+{
+	private static final String OVERTURE = "Overture";
+
+	/**
+	 * the links of the model
+	 */
+	Links links;
+
+	/**
+	 * the largest value reference of each type, indexed by the type ordinal. Zero if the type is not used
+	 */
+	final int[] maxValueReference = new int[ExtendedLinkInfo.Type.values().length];
+
+	/**
+	 * A scalar variable waiting for its link name
+	 */
+	private static class Variable
+	{
+		String valueReference;
+		String name;
+		String causality;
+		ExtendedLinkInfo.Type type = ExtendedLinkInfo.Type.Real;
+	}
+
+	private final List<Variable> variables = new Vector<Variable>();
+	private final Map<String, String> linkNames = new HashMap<String, String>();
+
+	private ModelDescriptionReader()
+	{
+	}
+
+	/**
+	 * Reads the model description
+	 * 
+	 * @param file
+	 *            the modelDescription.xml
+	 * @return the reader holding the result
+	 * @throws IOException
+	 *             if the file cannot be read or is not well formed
+	 */
+	static ModelDescriptionReader read(File file) throws IOException
+	{
+		ModelDescriptionReader reader = new ModelDescriptionReader();
+		try (InputStream in = new FileInputStream(file))
+		{
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+			XMLStreamReader xml = factory.createXMLStreamReader(in);
+			try
+			{
+				reader.parse(xml);
+			} finally
+			{
+				xml.close();
+			}
+		} catch (XMLStreamException e)
+		{
+			throw new IOException("Unable to read model description: " + file, e);
+		}
+		reader.link();
+		return reader;
+	}
+
+	private void parse(XMLStreamReader xml) throws XMLStreamException
+	{
+		// the open elements, the Overture tool element is recorded under its own name
+		Deque<String> path = new ArrayDeque<String>();
+		Variable variable = null;
+
+		while (xml.hasNext())
+		{
+			switch (xml.next())
+			{
+				case XMLStreamConstants.START_ELEMENT:
+				{
+					String element = xml.getLocalName();
+
+					if ("ScalarVariable".equals(element))
+					{
+						variable = new Variable();
+						variable.valueReference = xml.getAttributeValue(null, "valueReference");
+						variable.name = xml.getAttributeValue(null, "name");
+						variable.causality = xml.getAttributeValue(null, "causality");
+						variables.add(variable);
+					} else if (variable != null
+							&& "ScalarVariable".equals(path.peek()))
+					{
+						for (ExtendedLinkInfo.Type type : ExtendedLinkInfo.Type.values())
+						{
+							// the later types take precedence if a variable has more than one
+							if (type.name().equals(element)
+									&& type.ordinal() > variable.type.ordinal())
+							{
+								variable.type = type;
+							}
+						}
+					} else if ("Tool".equals(element)
+							&& OVERTURE.equals(xml.getAttributeValue(null, "name"))
+							&& isPath(path, "VendorAnnotations", "fmiModelDescription"))
+					{
+						element = OVERTURE + element;
+					} else if ("link".equals(element)
+							&& isPath(path, OVERTURE, OVERTURE + "Tool", "VendorAnnotations", "fmiModelDescription"))
+					{
+						String valueReference = xml.getAttributeValue(null, "valueReference");
+						String name = xml.getAttributeValue(null, "name");
+						if (valueReference != null && name != null
+								&& !linkNames.containsKey(valueReference))
+						{
+							linkNames.put(valueReference, name);
+						}
+					}
+
+					path.push(element);
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT:
+					if ("ScalarVariable".equals(path.pop()))
+					{
+						variable = null;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the innermost open elements are the given names, innermost first
+	 */
+	private static boolean isPath(Deque<String> path, String... names)
+	{
+		if (path.size() != names.length)
+		{
+			return false;
+		}
+		Iterator<String> itr = path.iterator();
+		for (String name : names)
+		{
+			if (!name.equals(itr.next()))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void link()
+	{
+		final Map<String, LinkInfo> link = new HashMap<String, LinkInfo>();
+		final List<String> outputs = new Vector<String>();
+		final List<String> inputs = new Vector<String>();
+		final List<String> designParameters = new Vector<String>();
+
+		for (Variable variable : variables)
+		{
+			String valRef = variable.valueReference;
+
+			String name = linkNames.get(valRef);
+			if (name == null)
+			{
+				name = variable.name;
+			}
+
+			List<String> qualifiedName = Arrays.asList(name.split("\\."));
+			link.put(valRef, new ExtendedLinkInfo(valRef, qualifiedName, 0, variable.type));
+
+			String causality = variable.causality;
+
+			if ("output".equals(causality) || "local".equals(causality))
+			{
+				outputs.add(valRef);
+			} else if ("input".equals(causality))
+			{
+				inputs.add(valRef);
+			} else if ("parameter".equals(causality))
+			{
+				designParameters.add(valRef);
+			}
+
+			try
+			{
+				int index = variable.type.ordinal();
+				maxValueReference[index] = Math.max(maxValueReference[index], Integer.parseInt(valRef));
+			} catch (NumberFormatException e)
+			{
+			}
+		}
+
+		links = new Links(link, outputs, inputs, new Vector<String>(), designParameters, new Vector<String>());
+	}
+
+	/**
+	 * @return the size of the cache array for the type
+	 */
+	int getArraySize(ExtendedLinkInfo.Type type)
+	{
+		return maxValueReference[type.ordinal()] + 1;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.overture.ast.definitions.ABusClassDefinition;
+import org.overture.ast.definitions.ACpuClassDefinition;
+import org.overture.ast.definitions.SClassDefinition;
+import org.overture.ast.util.definitions.ClassList;
+
+/**
+ * The type checked model written by the exporter next to the model sources. The snapshot is a GZIP compressed
+ * serialized {@link ClassList}, the library format the interpreter loads instead of parsing when given a {@code .lib}
+ * file. The header properties hold the snapshot format, the AST version it was written with and a hash of the sources
+ * it was checked from. The exporter writes the snapshot through this class, so it only depends on the JDK and the AST.
+ */
+public final class ModelSnapshot
+{
+	public static final String FILE_NAME = "model.lib";
+	public static final String HEADER_NAME = "model.lib.properties";
+
+	static final String FORMAT = "1";
+
+	static final String KEY_FORMAT = "format";
+	static final String KEY_AST = "ast";
+	static final String KEY_SOURCES = "sources";
+
+	/**
+	 * the AST version written by an exporter that cannot tell its version, never accepted by {@link #checkHeader}
+	 */
+	static final String UNKNOWN_VERSION = "unknown";
+
+	/**
+	 * the Maven properties of the Overture AST, kept by the jar-with-dependencies builds that drop its manifest
+	 */
+	static final String AST_POM_PROPERTIES = "/META-INF/maven/org.overturetool.core/ast/pom.properties";
+
+	private ModelSnapshot()
+	{
+	}
+
+	/**
+	 * Creates the header of a snapshot
+	 * 
+	 * @param sources
+	 *            the sources the snapshot is checked from by their path relative to the model folder, see
+	 *            {@link #getSourcePaths(File, Collection)}
+	 * @return the header
+	 * @throws IOException
+	 */
+	public static Properties createHeader(Map<String, File> sources)
+			throws IOException
+	{
+		Properties header = new Properties();
+		header.setProperty(KEY_FORMAT, FORMAT);
+		String astVersion = getAstVersion();
+		header.setProperty(KEY_AST, astVersion == null ? UNKNOWN_VERSION
+				: astVersion);
+		header.setProperty(KEY_SOURCES, hashSources(sources));
+		return header;
+	}
+
+	/**
+	 * Checks if a snapshot can be loaded by this interpreter instead of the sources
+	 * 
+	 * @param header
+	 *            the header of the snapshot
+	 * @param sources
+	 *            the sources by their path relative to the model folder
+	 * @return null if the snapshot matches, otherwise the reason it does not
+	 * @throws IOException
+	 */
+	public static String checkHeader(Properties header, Map<String, File> sources)
+			throws IOException
+	{
+		if (!FORMAT.equals(header.getProperty(KEY_FORMAT)))
+		{
+			return "format mismatch: " + header.getProperty(KEY_FORMAT);
+		}
+
+		String astVersion = getAstVersion();
+		if (astVersion == null)
+		{
+			return "the AST version of the interpreter is unknown";
+		} else if (!astVersion.equals(header.getProperty(KEY_AST)))
+		{
+			return "AST version mismatch: " + header.getProperty(KEY_AST);
+		} else if (!hashSources(sources).equals(header.getProperty(KEY_SOURCES)))
+		{
+			return "the sources have changed";
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the classes in the snapshot format. The CPU and BUS classes are left out since the interpreter adds them
+	 * when loading
+	 * 
+	 * @param classes
+	 *            the type checked classes
+	 * @param out
+	 *            the stream to write to, closed when done
+	 * @throws IOException
+	 */
+	public static void write(Collection<? extends SClassDefinition> classes,
+			OutputStream out) throws IOException
+	{
+		ClassList list = new ClassList();
+		for (SClassDefinition c : classes)
+		{
+			if (!(c instanceof ACpuClassDefinition)
+					&& !(c instanceof ABusClassDefinition))
+			{
+				list.add(c);
+			}
+		}
+
+		try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(out)))
+		{
+			oos.writeObject(list);
+		}
+	}
+
+	/**
+	 * Writes the classes in the snapshot format to a file
+	 */
+	static void write(Collection<? extends SClassDefinition> classes, File file)
+			throws IOException
+	{
+		write(classes, new FileOutputStream(file));
+	}
+
+	/**
+	 * @return the version of the AST the snapshot is serialized from, the implementation version of its package or the
+	 *         version of its Maven properties, null if neither is present
+	 */
+	static String getAstVersion()
+	{
+		String version = ClassList.class.getPackage().getImplementationVersion();
+		if (version != null)
+		{
+			return version;
+		}
+
+		try (InputStream in = ClassList.class.getResourceAsStream(AST_POM_PROPERTIES))
+		{
+			if (in != null)
+			{
+				Properties props = new Properties();
+				props.load(in);
+				return props.getProperty("version");
+			}
+		} catch (IOException e)
+		{
+			// treated as unknown
+		}
+		return null;
+	}
+
+	/**
+	 * Orders the sources by their path relative to the source root
+	 * 
+	 * @param sourceRoot
+	 *            the folder the paths are relative to
+	 * @param files
+	 *            the sources
+	 * @return the sources by their relative path, separated by /
+	 */
+	public static Map<String, File> getSourcePaths(File sourceRoot,
+			Collection<File> files)
+	{
+		Map<String, File> sorted = new TreeMap<String, File>();
+		for (File file : files)
+		{
+			sorted.put(sourceRoot.toURI().relativize(file.toURI()).getPath(), file);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Hashes the sources ordered by their relative path
+	 * 
+	 * @param sources
+	 *            the sources by their path relative to the model folder
+	 * @return the SHA-1 hash as hex
+	 * @throws IOException
+	 */
+	static String hashSources(Map<String, File> sources) throws IOException
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (Map.Entry<String, File> entry : new TreeMap<String, File>(sources).entrySet())
+			{
+				digest.update(entry.getKey().getBytes("UTF-8"));
+				digest.update((byte) 0);
+				digest.update(Files.readAllBytes(entry.getValue().toPath()));
+			}
+			return new BigInteger(1, digest.digest()).toString(16);
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,728 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of pre-warmed {@link ShmServer} JVMs. A pool daemon listens on a loopback port and keeps a number of idle
+ * workers that have already loaded the interpreter. A server started with the pool port hands its shared memory key to
+ * the daemon, which passes it on to an idle worker. The worker serves the session as a normal single instance server
+ * and exits when it is closed. The daemon uses the {@link SessionHost} control protocol towards the servers, and the
+ * following towards its workers:
+ * 
+ * <pre>
+ * worker: WORKER &lt;token&gt; &lt;id&gt;
+ * daemon: SERVE &lt;token&gt; &lt;key&gt;
+ * worker: OK           the session is open, the worker exits when it is closed
+ * </pre>
+ * 
+ * Servers and workers must present the token of the daemon, see {@link SessionHost}. The token is extended with a
+ * digest of the class path, so a server of another interpreter build is turned away and serves its key itself. The
+ * daemon and its workers run from a copy of the class path in the temporary folder, which keeps the folder the FMU
+ * was extracted to free to be deleted. Workers are tracked by the id they are started with, a worker that exits or
+ * does not connect within {@link #CONNECT_TIMEOUT_SECONDS} gives its place in the pool back.
+ * 
+ * If no daemon is running the first server starts one and serves its own key, so only the first instance pays the
+ * full start up. The daemon and its idle workers exit when no session has been active for the idle timeout.
+ */
+final class ProcessPool
+{
+	final static Logger logger = LoggerFactory.getLogger(ProcessPool.class);
+
+	static final String WORKER = "WORKER";
+
+	static final int DEFAULT_SIZE = 2;
+	static final int DEFAULT_IDLE_SECONDS = 60;
+	static final int CONNECT_TIMEOUT_SECONDS = 60;
+
+	/**
+	 * the JVM options passed on to the daemon and the workers, others such as agents, recordings or log files are
+	 * specific to the JVM started by the native wrapper
+	 */
+	private static final String[] FORWARDED_OPTIONS = { "-D", "-Xms", "-Xmx",
+			"-Xss", "-XX:MaxMetaspaceSize=", "-XX:+Use", "-XX:-Use" };
+
+	/**
+	 * the classes loaded by a worker before it reports ready
+	 */
+	private static final String[] WARM_UP_CLASSES = {
+			"org.overture.parser.util.ParserUtil",
+			"org.overture.typechecker.util.TypeCheckerUtil",
+			"org.overture.interpreter.runtime.Interpreter",
+			"org.overture.interpreter.values.ValueFactory",
+			"org.destecs.vdmj.VDMCO", "com.lausdahl.examples.Service",
+			"org.crescendo.fmi.CrescendoFmu" };
+
+	private final ServerSocket server;
+	private final String token;
+	private final int size;
+	private final long idleMillis;
+
+	private final LinkedList<Worker> idle = new LinkedList<Worker>();
+
+	/**
+	 * the workers started but not yet connected, by id
+	 */
+	private final Map<Integer, Process> starting = new HashMap<Integer, Process>();
+	private int nextWorkerId = 0;
+	private int active = 0;
+	private long lastRequest = System.currentTimeMillis();
+
+	/**
+	 * An idle worker connected to the daemon
+	 */
+	private static class Worker
+	{
+		final Socket socket;
+		final BufferedReader in;
+
+		Worker(Socket socket, BufferedReader in)
+		{
+			this.socket = socket;
+			this.in = in;
+		}
+	}
+
+	private ProcessPool(ServerSocket server, String token, int size,
+			int idleSeconds)
+	{
+		this.server = server;
+		this.token = token;
+		this.size = size;
+		this.idleMillis = idleSeconds * 1000L;
+	}
+
+	/**
+	 * Serves the key through a pooled worker. If no daemon is running one is started for the next instances
+	 * 
+	 * @param port
+	 *            the loopback port of the pool daemon
+	 * @param token
+	 *            the shared secret of the daemon
+	 * @param memoryKey
+	 *            the shared memory key to serve
+	 * @param size
+	 *            the number of idle workers the daemon keeps
+	 * @param idleSeconds
+	 *            the idle timeout of the daemon
+	 * @return true if the key is served, false if the caller must serve it itself
+	 * @throws IOException
+	 */
+	static boolean run(int port, String token, String memoryKey, int size,
+			int idleSeconds) throws IOException
+	{
+		if (!SessionHost.isValidToken(token))
+		{
+			logger.warn("No valid pool token given, serving '{}' locally", memoryKey);
+			return false;
+		}
+
+		String classPath = System.getProperty("java.class.path");
+		String classPathId;
+		try
+		{
+			classPathId = getClassPathId(classPath);
+		} catch (IOException e)
+		{
+			logger.warn("Unable to read the class path, serving '" + memoryKey
+					+ "' locally", e);
+			return false;
+		}
+		token = token + "-" + classPathId;
+
+		try
+		{
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			return SessionHost.delegate(socket, token, memoryKey);
+		} catch (IOException e)
+		{
+			logger.debug("No pool daemon on port {}, starting one", port);
+		}
+
+		List<String> args = new Vector<String>();
+		args.add("--pool");
+		args.add("" + port);
+		args.add("--token");
+		args.add(token);
+		args.add("--pool-size");
+		args.add("" + size);
+		args.add("--pool-idle");
+		args.add("" + idleSeconds);
+		args.add("--pool-daemon");
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "crescendo-pool-"
+				+ classPathId);
+		try
+		{
+			start(args, copyClassPath(classPath, dir), dir, new File(System.getProperty("java.io.tmpdir"), "crescendo-pool-"
+					+ port + ".log"));
+		} catch (IOException e)
+		{
+			logger.warn("Unable to start the pool daemon", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Computes a digest of the class path from the names, sizes and checksums of the archive entries, which are read
+	 * from the archive directories without reading the content
+	 * 
+	 * @param classPath
+	 *            the class path
+	 * @return the digest as a short string
+	 */
+	static String getClassPathId(String classPath) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+
+		for (String entry : classPath.split(File.pathSeparator))
+		{
+			File file = new File(entry);
+			digest.update(file.getName().getBytes("UTF-8"));
+			if (file.isFile())
+			{
+				try (ZipFile zip = new ZipFile(file))
+				{
+					Enumeration<? extends ZipEntry> entries = zip.entries();
+					while (entries.hasMoreElements())
+					{
+						ZipEntry e = entries.nextElement();
+						digest.update((e.getName() + ":" + e.getSize() + ":"
+								+ e.getCrc() + "\n").getBytes("UTF-8"));
+					}
+				}
+			} else
+			{
+				digest.update(file.getAbsolutePath().getBytes("UTF-8"));
+			}
+		}
+		return new BigInteger(1, digest.digest()).toString(32);
+	}
+
+	/**
+	 * Copies the archives of the class path into the folder, unless they are already there. Directories are kept as
+	 * they are
+	 * 
+	 * @param classPath
+	 *            the class path
+	 * @param dir
+	 *            the folder to copy to
+	 * @return the class path of the copy
+	 * @throws IOException
+	 */
+	static String copyClassPath(String classPath, File dir) throws IOException
+	{
+		dir.mkdirs();
+
+		StringBuilder copy = new StringBuilder();
+		int index = 0;
+		for (String entry : classPath.split(File.pathSeparator))
+		{
+			File file = new File(entry);
+			if (file.isFile())
+			{
+				File target = new File(dir, index++ + "-" + file.getName());
+				if (!target.isFile() || target.length() != file.length())
+				{
+					File temp = File.createTempFile("copy", ".tmp", dir);
+					Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				file = target;
+			}
+
+			if (copy.length() > 0)
+			{
+				copy.append(File.pathSeparator);
+			}
+			copy.append(file.getAbsolutePath());
+		}
+		return copy.toString();
+	}
+
+	/**
+	 * Runs the pool daemon until it has been idle for the timeout. Returns at once if the port is taken, which happens
+	 * when two servers start a daemon at the same time
+	 */
+	static void daemon(int port, String token, int size, int idleSeconds)
+	{
+		if (!SessionHost.isValidToken(token))
+		{
+			logger.error("No valid pool token given");
+			return;
+		}
+
+		ServerSocket server;
+		try
+		{
+			server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			server.setSoTimeout(1000);
+		} catch (IOException e)
+		{
+			logger.debug("Unable to bind pool daemon port " + port, e);
+			return;
+		}
+
+		logger.debug("Pool daemon started on port {} with {} workers", port, size);
+		new ProcessPool(server, token, size, idleSeconds).serve();
+	}
+
+	/**
+	 * Connects a worker to the daemon, loads the interpreter and waits for a key to serve
+	 * 
+	 * @param port
+	 *            the loopback port of the pool daemon
+	 * @param token
+	 *            the shared secret of the daemon
+	 * @param id
+	 *            the id the daemon started the worker with
+	 * @return the connection to report the session as open through, or null if the daemon closed the worker
+	 * @throws IOException
+	 */
+	static WorkerSession awaitSession(int port, String token, int id)
+			throws IOException
+	{
+		for (String name : WARM_UP_CLASSES)
+		{
+			try
+			{
+				Class.forName(name);
+			} catch (ClassNotFoundException e)
+			{
+				logger.debug("Warm up class not found: {}", name);
+			}
+		}
+		FmiSimulationManager.getInstance();
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		OutputStream out = socket.getOutputStream();
+		out.write((WORKER + " " + token + " " + id + "\n").getBytes("UTF-8"));
+		out.flush();
+
+		String memoryKey = SessionHost.parseServe(new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine(), token);
+		if (memoryKey == null)
+		{
+			socket.close();
+			return null;
+		}
+		return new WorkerSession(socket, memoryKey);
+	}
+
+	/**
+	 * The session handed to a worker. The connection stays open until the worker exits, which tells the daemon the
+	 * session is done
+	 */
+	static class WorkerSession
+	{
+		private final Socket socket;
+		final String memoryKey;
+
+		WorkerSession(Socket socket, String memoryKey)
+		{
+			this.socket = socket;
+			this.memoryKey = memoryKey;
+		}
+
+		void opened() throws IOException
+		{
+			socket.getOutputStream().write((SessionHost.OK + "\n").getBytes("UTF-8"));
+			socket.getOutputStream().flush();
+		}
+	}
+
+	private void serve()
+	{
+		fill();
+
+		while (true)
+		{
+			Socket socket;
+			try
+			{
+				socket = server.accept();
+			} catch (SocketTimeoutException e)
+			{
+				if (isIdle())
+				{
+					break;
+				}
+				continue;
+			} catch (IOException e)
+			{
+				logger.error("Pool daemon stopped", e);
+				break;
+			}
+
+			try
+			{
+				handle(socket);
+			} catch (IOException e)
+			{
+				logger.debug("Error handling pool client", e);
+				close(socket);
+			}
+		}
+
+		logger.debug("Pool daemon idle, exiting");
+		try
+		{
+			server.close();
+		} catch (IOException e)
+		{
+		}
+		synchronized (this)
+		{
+			for (Worker worker : idle)
+			{
+				close(worker.socket);
+			}
+			idle.clear();
+			for (Process process : starting.values())
+			{
+				process.destroy();
+			}
+		}
+		System.exit(0);
+	}
+
+	private synchronized boolean isIdle()
+	{
+		return active == 0
+				&& System.currentTimeMillis() - lastRequest > idleMillis;
+	}
+
+	private void handle(Socket socket) throws IOException
+	{
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		String request = in.readLine();
+
+		if (request != null && request.startsWith(WORKER + " "))
+		{
+			String[] parts = request.split(" ");
+			synchronized (this)
+			{
+				if (parts.length == 3 && SessionHost.matches(token, parts[1])
+						&& starting.remove(parseId(parts[2])) != null)
+				{
+					idle.add(new Worker(socket, in));
+					return;
+				}
+			}
+			logger.warn("Rejected pool worker on port {}", socket.getPort());
+			close(socket);
+			return;
+		}
+
+		if (SessionHost.parseServe(request, token) == null)
+		{
+			logger.warn("Rejected pool client on port {}", socket.getPort());
+			close(socket);
+			return;
+		}
+
+		synchronized (this)
+		{
+			lastRequest = System.currentTimeMillis();
+		}
+
+		Worker worker;
+		while ((worker = take()) != null)
+		{
+			if (handOver(worker, request, socket))
+			{
+				break;
+			}
+		}
+		fill();
+
+		if (worker == null)
+		{
+			// no worker ready, the server serves the key itself
+			close(socket);
+		}
+	}
+
+	private static Integer parseId(String id)
+	{
+		try
+		{
+			return Integer.valueOf(id);
+		} catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	private synchronized Worker take()
+	{
+		return idle.poll();
+	}
+
+	/**
+	 * Passes the request on to the worker and relays the end of the session to the server
+	 */
+	private boolean handOver(final Worker worker, String request,
+			final Socket client)
+	{
+		try
+		{
+			worker.socket.getOutputStream().write((request + "\n").getBytes("UTF-8"));
+			worker.socket.getOutputStream().flush();
+			if (!SessionHost.OK.equals(worker.in.readLine()))
+			{
+				close(worker.socket);
+				return false;
+			}
+
+			final OutputStream out = client.getOutputStream();
+			out.write((SessionHost.OK + "\n").getBytes("UTF-8"));
+			out.flush();
+		} catch (IOException e)
+		{
+			close(worker.socket);
+			return false;
+		}
+
+		synchronized (this)
+		{
+			active++;
+		}
+
+		Thread relay = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					// the worker exits when the session is closed
+					while (worker.in.readLine() != null)
+					{
+					}
+					client.getOutputStream().write((SessionHost.DONE + "\n").getBytes("UTF-8"));
+					client.getOutputStream().flush();
+				} catch (IOException e)
+				{
+					logger.debug("Lost pool session", e);
+				} finally
+				{
+					close(worker.socket);
+					close(client);
+					synchronized (ProcessPool.this)
+					{
+						active--;
+						lastRequest = System.currentTimeMillis();
+					}
+				}
+			}
+		}, "Pool session relay");
+		relay.setDaemon(true);
+		relay.start();
+		return true;
+	}
+
+	/**
+	 * Starts workers until the idle and starting workers reach the pool size. Workers that died are only replaced by
+	 * the next request, so a worker failing at start up does not make the daemon start workers in a loop
+	 */
+	private void fill()
+	{
+		while (true)
+		{
+			int id;
+			synchronized (this)
+			{
+				if (idle.size() + starting.size() >= size)
+				{
+					return;
+				}
+				id = nextWorkerId++;
+			}
+
+			List<String> args = new Vector<String>();
+			args.add("--pool");
+			args.add("" + server.getLocalPort());
+			args.add("--token");
+			args.add(token);
+			args.add("--pool-worker");
+			args.add("" + id);
+			try
+			{
+				Process process = start(args, System.getProperty("java.class.path"), new File(System.getProperty("user.dir")), null);
+				synchronized (this)
+				{
+					starting.put(id, process);
+				}
+				watch(id, process);
+			} catch (IOException e)
+			{
+				logger.error("Unable to start pool worker", e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gives the place of a worker back when it exits before connecting. A worker not connected within the timeout is
+	 * destroyed
+	 */
+	private void watch(final int id, final Process process)
+	{
+		Thread watcher = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					if (!process.waitFor(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+					{
+						synchronized (ProcessPool.this)
+						{
+							if (starting.containsKey(id))
+							{
+								logger.warn("Pool worker {} did not connect, destroying it", id);
+								process.destroy();
+							}
+						}
+						process.waitFor();
+					}
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+
+				synchronized (ProcessPool.this)
+				{
+					if (starting.remove(id) != null)
+					{
+						logger.warn("Pool worker {} exited with {} before connecting", id, process.exitValue());
+					}
+				}
+			}
+		}, "Pool worker " + id);
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Starts a {@link ShmServer} with the forwarded JVM options of this JVM, see {@link #FORWARDED_OPTIONS}
+	 * 
+	 * @param args
+	 *            the server arguments
+	 * @param classPath
+	 *            the class path of the server
+	 * @param dir
+	 *            the working directory of the server
+	 * @param log
+	 *            the file to append the output to, null to inherit the output of this JVM
+	 * @return the process
+	 * @throws IOException
+	 */
+	static Process start(List<String> args, String classPath, File dir,
+			File log) throws IOException
+	{
+		List<String> command = new Vector<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+		{
+			if (isForwarded(arg))
+			{
+				command.add(arg);
+			}
+		}
+		command.add("-cp");
+		command.add(classPath);
+		command.add(ShmServer.class.getName());
+		command.addAll(args);
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(dir);
+		if (log != null)
+		{
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+		} else
+		{
+			builder.inheritIO();
+		}
+		return builder.start();
+	}
+
+	static boolean isForwarded(String option)
+	{
+		for (String prefix : FORWARDED_OPTIONS)
+		{
+			if (option.startsWith(prefix))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void close(Socket socket)
+	{
+		try
+		{
+			socket.close();
+		} catch (IOException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Vector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Child first class loader giving a session its own interpreter context. The interpreter, the simulation manager and
+ * the settings all keep their state in statics, so every session loads its own copy of these classes. The JDK, the
+ * logging framework and the shared memory service are loaded by the parent since the service is shared with the host
+ * and holds a native library that can only be bound to one loader.
+ * 
+ * The session is entered through {@link #invoke(String, String, Class[], Object...)} with the loader as context class
+ * loader, so every thread the session starts carries the loader. {@link #shutdown()} stops these threads, which would
+ * otherwise keep the loader and all the statics of the interpreter alive after the session is closed.
+ */
+final class SessionClassLoader extends URLClassLoader
+{
+	final static Logger logger = LoggerFactory.getLogger(SessionClassLoader.class);
+
+	/**
+	 * how long {@link #shutdown()} waits for each session thread to end
+	 */
+	static final long SHUTDOWN_MILLIS = 2000;
+
+	private static final String[] SHARED_PACKAGES = { "java.", "javax.",
+			"sun.", "com.sun.", "jdk.", "org.w3c.", "org.xml.", "org.slf4j.",
+			"org.apache.log4j.", "org.intocps.java.fmi.",
+			"com.google.protobuf.", "com.lausdahl.examples." };
+
+	SessionClassLoader(ClassLoader parent) throws MalformedURLException
+	{
+		this(getClassPath(), parent);
+	}
+
+	SessionClassLoader(URL[] urls, ClassLoader parent)
+	{
+		super(urls, parent);
+	}
+
+	/**
+	 * Calls a static method of a class of the session with the loader as context class loader
+	 * 
+	 * @param className
+	 *            the class, loaded by this loader
+	 * @param method
+	 *            the name of the static method
+	 * @param types
+	 *            the parameter types of the method
+	 * @param args
+	 *            the arguments
+	 * @return the result of the method
+	 * @throws Exception
+	 *             thrown by the method or if it cannot be found
+	 */
+	Object invoke(String className, String method, Class<?>[] types,
+			Object... args) throws Exception
+	{
+		Thread current = Thread.currentThread();
+		ClassLoader previous = current.getContextClassLoader();
+		current.setContextClassLoader(this);
+		try
+		{
+			return loadClass(className).getMethod(method, types).invoke(null, args);
+		} catch (InvocationTargetException e)
+		{
+			if (e.getCause() instanceof Exception)
+			{
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally
+		{
+			current.setContextClassLoader(previous);
+		}
+	}
+
+	/**
+	 * Interrupts the threads started by the session and waits for them to end. The calling thread is left running, so
+	 * this can be called from the session itself when it closes
+	 */
+	void shutdown()
+	{
+		List<Thread> threads = new Vector<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread != Thread.currentThread()
+					&& thread.getContextClassLoader() == this)
+			{
+				threads.add(thread);
+				thread.interrupt();
+			}
+		}
+
+		boolean interrupted = false;
+		for (Thread thread : threads)
+		{
+			try
+			{
+				thread.join(SHUTDOWN_MILLIS);
+			} catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+			if (thread.isAlive())
+			{
+				logger.warn("Session thread '{}' did not stop, the session classes stay loaded", thread.getName());
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the class path of the JVM. The launcher has already expanded any wildcards
+	 * @throws MalformedURLException
+	 */
+	static URL[] getClassPath() throws MalformedURLException
+	{
+		List<URL> urls = new Vector<URL>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+		{
+			if (!entry.isEmpty())
+			{
+				urls.add(new File(entry).toURI().toURL());
+			}
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	private static boolean isShared(String name)
+	{
+		for (String prefix : SHARED_PACKAGES)
+		{
+			if (name.startsWith(prefix))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException
+	{
+		if (isShared(name))
+		{
+			return super.loadClass(name, resolve);
+		}
+
+		synchronized (getClassLoadingLock(name))
+		{
+			Class<?> c = findLoadedClass(name);
+			if (c == null)
+			{
+				try
+				{
+					c = findClass(name);
+				} catch (ClassNotFoundException e)
+				{
+					c = super.loadClass(name, false);
+				}
+			}
+			if (resolve)
+			{
+				resolveClass(c);
+			}
+			return c;
+		}
+	}
+}
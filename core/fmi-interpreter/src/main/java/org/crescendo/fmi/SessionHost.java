@@ -0,0 +1,396 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts several FMU instances in one JVM. The first {@link ShmServer} started with a host port becomes the host and
+ * listens on the loopback interface. Later servers ask the host to serve their shared memory key and then only wait
+ * for the session to end. The control protocol is line based:
+ * 
+ * <pre>
+ * client: SERVE &lt;token&gt; &lt;key&gt;
+ * host:   OK             the session is open
+ * host:   DONE           the session is closed
+ * </pre>
+ * 
+ * The token is the shared secret written into config.txt by the exporter, see the ShmServer --token option. A client
+ * sending another token is disconnected, so other local processes cannot make the host serve a key. Every session runs in its own
+ * {@link SessionClassLoader}. The host exits when its last session is closed.
+ */
+final class SessionHost
+{
+	final static Logger logger = LoggerFactory.getLogger(SessionHost.class);
+
+	static final String SERVE = "SERVE";
+	static final String OK = "OK";
+	static final String DONE = "DONE";
+
+	private final ServerSocket server;
+	private final String token;
+	private int sessions = 0;
+	private boolean closed = false;
+
+	private SessionHost(ServerSocket server, String token)
+	{
+		this.server = server;
+		this.token = token;
+	}
+
+	/**
+	 * Serves the key through a running host or by becoming the host. Falls back to serving the key in this JVM if
+	 * neither is possible
+	 * 
+	 * @param port
+	 *            the loopback port of the host
+	 * @param token
+	 *            the shared secret of the host
+	 * @param memoryKey
+	 *            the shared memory key to serve
+	 * @return true if the key is served, false if the caller must serve it itself
+	 * @throws Exception
+	 */
+	static boolean run(int port, String token, String memoryKey)
+			throws Exception
+	{
+		if (!isValidToken(token))
+		{
+			logger.warn("No valid session host token given, serving '{}' locally", memoryKey);
+			return false;
+		}
+
+		Socket socket = connect(port);
+		if (socket != null)
+		{
+			if (delegate(socket, token, memoryKey))
+			{
+				return true;
+			}
+		} else
+		{
+			ServerSocket server = bind(port);
+			if (server != null)
+			{
+				SessionHost host = new SessionHost(server, token);
+				if (host.open(memoryKey))
+				{
+					host.accept();
+					return true;
+				}
+				host.close();
+			}
+		}
+
+		logger.debug("No session host available on port {}, serving '{}' locally", port, memoryKey);
+		return false;
+	}
+
+	/**
+	 * @return true if the token can be sent in a request line
+	 */
+	static boolean isValidToken(String token)
+	{
+		return token != null && !token.isEmpty() && !token.contains(" ")
+				&& !token.contains("\n");
+	}
+
+	/**
+	 * Parses a SERVE request
+	 * 
+	 * @param request
+	 *            the request line
+	 * @param token
+	 *            the expected token
+	 * @return the shared memory key, or null if the line is not a SERVE request with the token
+	 * @throws IOException
+	 */
+	static String parseServe(String request, String token) throws IOException
+	{
+		String[] parts = request == null ? new String[0] : request.split(" ");
+		if (parts.length != 3 || !SERVE.equals(parts[0])
+				|| !matches(token, parts[1]))
+		{
+			return null;
+		}
+		return parts[2];
+	}
+
+	/**
+	 * Compares a token in constant time
+	 * 
+	 * @return true if the given token is the expected one
+	 */
+	static boolean matches(String token, String given) throws IOException
+	{
+		return MessageDigest.isEqual(token.getBytes("UTF-8"), given.getBytes("UTF-8"));
+	}
+
+	private static Socket connect(int port)
+	{
+		try
+		{
+			return new Socket(InetAddress.getLoopbackAddress(), port);
+		} catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	private static ServerSocket bind(int port)
+	{
+		try
+		{
+			return new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		} catch (IOException e)
+		{
+			logger.debug("Unable to bind session host port " + port, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Hands the key to the host and blocks until the session is done. Exits the JVM once the host accepted the key
+	 * 
+	 * @return false if the host did not accept the key
+	 */
+	static boolean delegate(Socket socket, String token, String memoryKey)
+			throws IOException
+	{
+		try
+		{
+			socket.getOutputStream().write((SERVE + " " + token + " "
+					+ memoryKey + "\n").getBytes("UTF-8"));
+			socket.getOutputStream().flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			if (!OK.equals(in.readLine()))
+			{
+				return false;
+			}
+
+			logger.debug("Session '{}' served by host on port {}", memoryKey, socket.getPort());
+			if (DONE.equals(in.readLine()))
+			{
+				System.exit(0);
+			}
+			logger.error("Lost connection to the session host serving '{}'", memoryKey);
+			System.exit(1);
+			return true;
+		} catch (IOException e)
+		{
+			logger.debug("Session host rejected '" + memoryKey + "'", e);
+			return false;
+		} finally
+		{
+			socket.close();
+		}
+	}
+
+	/**
+	 * Opens a session in a new interpreter context
+	 * 
+	 * @param memoryKey
+	 *            the shared memory key
+	 * @param onClose
+	 *            called when the session is closed
+	 * @return true if the session was opened
+	 */
+	private boolean open(String memoryKey, final Runnable onClose)
+	{
+		synchronized (this)
+		{
+			if (closed)
+			{
+				return false;
+			}
+			sessions++;
+		}
+
+		SessionClassLoader loader = null;
+		try
+		{
+			final SessionClassLoader sessionLoader = new SessionClassLoader(ShmServer.class.getClassLoader());
+			loader = sessionLoader;
+			loader.invoke(ShmServer.class.getName(), "serve", new Class<?>[] {
+					String.class, Runnable.class }, memoryKey, new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (onClose != null)
+						{
+							onClose.run();
+						}
+					} finally
+					{
+						// the session threads and classes go with the loader
+						sessionLoader.shutdown();
+						sessionClosed();
+					}
+				}
+			});
+			logger.debug("Opened session '{}'", memoryKey);
+			return true;
+		} catch (Exception e)
+		{
+			logger.error("Unable to open session '" + memoryKey + "'", e);
+			if (loader != null)
+			{
+				loader.shutdown();
+			}
+			synchronized (this)
+			{
+				sessions--;
+			}
+			return false;
+		}
+	}
+
+	private boolean open(String memoryKey)
+	{
+		return open(memoryKey, null);
+	}
+
+	private void sessionClosed()
+	{
+		synchronized (this)
+		{
+			sessions--;
+			if (sessions > 0)
+			{
+				return;
+			}
+			closed = true;
+		}
+		logger.debug("Last session closed, exiting session host");
+		close();
+		System.exit(0);
+	}
+
+	private void close()
+	{
+		try
+		{
+			server.close();
+		} catch (IOException e)
+		{
+		}
+	}
+
+	/**
+	 * Accepts clients until the server socket is closed
+	 */
+	private void accept()
+	{
+		while (!server.isClosed())
+		{
+			final Socket socket;
+			try
+			{
+				socket = server.accept();
+			} catch (IOException e)
+			{
+				continue;
+			}
+
+			Thread handler = new Thread(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					handle(socket);
+				}
+			}, "Session host client");
+			handler.setDaemon(true);
+			handler.start();
+		}
+	}
+
+	private void handle(final Socket socket)
+	{
+		try
+		{
+			String request = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+			final String memoryKey = parseServe(request, token);
+			if (memoryKey == null)
+			{
+				logger.warn("Rejected session host client on port {}", socket.getPort());
+				socket.close();
+				return;
+			}
+
+			final OutputStream out = socket.getOutputStream();
+
+			// locked so a session closing right away cannot send DONE before OK
+			synchronized (socket)
+			{
+				boolean opened = open(memoryKey, new Runnable()
+				{
+
+					@Override
+					public void run()
+					{
+						synchronized (socket)
+						{
+							try
+							{
+								out.write((DONE + "\n").getBytes("UTF-8"));
+								out.flush();
+								socket.close();
+							} catch (IOException e)
+							{
+								logger.debug("Unable to notify client", e);
+							}
+						}
+					}
+				});
+
+				if (opened)
+				{
+					out.write((OK + "\n").getBytes("UTF-8"));
+					out.flush();
+				} else
+				{
+					socket.close();
+				}
+			}
+		} catch (IOException e)
+		{
+			logger.error("Error handling session host client", e);
+		}
+	}
+}
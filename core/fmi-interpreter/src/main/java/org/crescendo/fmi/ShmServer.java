@@ -21,7 +21,14 @@
  */
 package org.crescendo.fmi;
 
-import org.intocps.java.fmi.service.ProtocolDriver;
+import java.io.File;
+
+import org.crescendo.fmi.transport.RemoteConnection;
+import org.crescendo.fmi.transport.RemoteServiceProxy;
+import org.crescendo.fmi.transport.ShmTransport;
+import org.crescendo.fmi.transport.SocketTransport;
+import org.crescendo.fmi.transport.Transport;
+import org.crescendo.fmi.transport.Transports;
 import org.intocps.java.fmi.shm.SharedMemory;
 import org.intocps.java.fmi.shm.SharedMemoryServer;
 import org.slf4j.Logger;
@@ -31,51 +38,154 @@ public class ShmServer
 {
 
 	final static Logger logger = LoggerFactory.getLogger(ShmServer.class);
-	static ProtocolDriver driver = null;
+	static Transport transport = null;
 
 	public static void main(String[] args) throws Exception
 	{
 		try
 		{
 			String memoryKey = SharedMemory.DEFAULT_MEMORY_NAME;// "shmFmiTest";// "OvertureFmiFileMappingObject";
+			int hostPort = -1;
+			String token = null;
+			int poolPort = -1;
+			int poolSize = ProcessPool.DEFAULT_SIZE;
+			int poolIdle = ProcessPool.DEFAULT_IDLE_SECONDS;
+			boolean poolDaemon = false;
+			int poolWorker = -1;
+			String transportName = Transports.DEFAULT;
+			String bindAddress = null;
+			String remoteAddress = null;
+			boolean deflate = false;
+			String cdsArchive = null;
+			String flightRecording = null;
 
-			if (args.length > 1)
+			for (int i = 0; i < args.length; i++)
 			{
-				if (args[0].equals("-p") || args[1].equals("--port"))
+				if (args[i].equals("--pool-daemon"))
+				{
+					poolDaemon = true;
+				} else if (args[i].equals("--deflate"))
 				{
+					deflate = true;
+				} else if (i + 1 < args.length)
+				{
+					if (args[i].equals("-p") || args[i].equals("--port"))
+					{
+						memoryKey = args[++i];
+					} else if (args[i].equals("--host"))
+					{
+						hostPort = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("--token"))
+					{
+						token = args[++i];
+					} else if (args[i].equals("--pool"))
+					{
+						poolPort = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("--pool-worker"))
+					{
+						poolWorker = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("--pool-size"))
+					{
+						poolSize = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("--pool-idle"))
+					{
+						poolIdle = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("--transport"))
+					{
+						transportName = args[++i];
+					} else if (args[i].equals("--bind"))
+					{
+						bindAddress = args[++i];
+					} else if (args[i].equals("--remote"))
+					{
+						remoteAddress = args[++i];
+					} else if (args[i].equals("--cds"))
+					{
+						cdsArchive = args[++i];
+					} else if (args[i].equals("--jfr"))
+					{
+						flightRecording = args[++i];
+					}
+				}
+			}
+
+			if (flightRecording != null)
+			{
+				FlightEvents.startRecording(FlightEvents.getRecordingFile(flightRecording));
+			}
 
-					memoryKey = args[1];
+			if (poolDaemon)
+			{
+				ProcessPool.daemon(poolPort, token, poolSize, poolIdle);
+				return;
+			}
+
+			ProcessPool.WorkerSession workerSession = null;
+			if (poolWorker >= 0)
+			{
+				workerSession = ProcessPool.awaitSession(poolPort, token, poolWorker);
+				if (workerSession == null)
+				{
+					return;
 				}
+				memoryKey = workerSession.memoryKey;
 			}
 
 			logger.debug("Starting Crescendo ShmServer with key: '" + memoryKey
-					+ "'");
+					+ "', transport: '" + transportName + "'");
+
+			if (cdsArchive != null)
+			{
+				CdsArchive.dumpIfMissing(new File(cdsArchive));
+			}
 
 			new SharedMemory().setDebug(logger.isDebugEnabled());
 			SharedMemoryServer.setServerDebug(logger.isDebugEnabled());
 
-			driver = new ProtocolDriver(memoryKey, new CrescendoFmu(memoryKey)
+			if (remoteAddress != null)
+			{
+				proxy(memoryKey, remoteAddress, deflate, token);
+				return;
+			}
+
+			// the host and the pool hand sessions over by their shared memory key
+			boolean shm = transportName.equals(Transports.DEFAULT);
+
+			if (shm && hostPort > 0 && SessionHost.run(hostPort, token, memoryKey))
+			{
+				return;
+			}
+
+			if (shm && poolWorker < 0 && poolPort > 0
+					&& ProcessPool.run(poolPort, token, memoryKey, poolSize, poolIdle))
+			{
+				return;
+			}
+
+			transport = Transports.create(transportName, memoryKey, new CrescendoFmu(memoryKey)
 			{
 
 				@Override
 				public void close()
 				{
-					if (driver != null)
+					if (transport != null)
 					{
-						logger.debug("Stopping shared memory, and releasing associated resources");
-						driver.close();
+						logger.debug("Stopping the transport, and releasing associated resources");
+						transport.close();
 						logger.debug("Exiting shm server");
 						System.exit(0);
 					}
 				}
-			});
+			}, bindAddress, token);
 
-			driver.open();
+			transport.open();
 
-			while (true)
+			if (workerSession != null)
 			{
-				Thread.sleep(30000);
+				workerSession.opened();
 			}
+
+			transport.await();
 		} catch (Exception e)
 		{
 			e.printStackTrace();
@@ -83,4 +193,70 @@ public class ShmServer
 		}
 	}
 
+	/**
+	 * Serves the shared memory of the native wrapper by forwarding the calls to an instance served by a
+	 * {@link SocketTransport} on another host, see {@link RemoteServiceProxy}
+	 * 
+	 * @param memoryKey
+	 *            the shared memory key of the wrapper
+	 * @param remoteAddress
+	 *            host:port of the remote instance
+	 * @param deflate
+	 *            deflate the frames sent to the remote instance
+	 * @param token
+	 *            the token of the remote instance, null if it requires none
+	 */
+	static void proxy(String memoryKey, String remoteAddress, boolean deflate,
+			String token) throws Exception
+	{
+		logger.debug("Forwarding '{}' to {}", memoryKey, remoteAddress);
+
+		RemoteConnection connection = new RemoteConnection(SocketTransport.parseAddress(remoteAddress), deflate, token);
+		transport = new ShmTransport(memoryKey, new RemoteServiceProxy(connection)
+		{
+
+			@Override
+			public void close()
+			{
+				logger.debug("Remote instance freed, exiting shm server");
+				transport.close();
+				System.exit(0);
+			}
+		});
+
+		transport.open();
+		transport.await();
+	}
+
+	/**
+	 * Serves a session of a {@link SessionHost}. The method is called in the {@link SessionClassLoader} of the session
+	 * so the transport field belongs to the session
+	 * 
+	 * @param memoryKey
+	 *            the shared memory key of the session
+	 * @param onClose
+	 *            called when the session is closed, instead of exiting the JVM
+	 */
+	public static void serve(String memoryKey, final Runnable onClose)
+			throws Exception
+	{
+		transport = new ShmTransport(memoryKey, new CrescendoFmu(memoryKey)
+		{
+
+			@Override
+			public void close()
+			{
+				if (transport != null)
+				{
+					logger.debug("Stopping shared memory, and releasing associated resources");
+					transport.close();
+					logger.debug("Session closed: '{}'", sessionName);
+					onClose.run();
+				}
+			}
+		});
+
+		transport.open();
+	}
+
 }
@@ -24,21 +24,12 @@ package org.crescendo.fmi;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Vector;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.crescendo.fmi.xml.NodeIterator;
 import org.destecs.core.vdmlink.LinkInfo;
 import org.destecs.core.vdmlink.Links;
 import org.overture.interpreter.runtime.ValueException;
@@ -48,12 +39,6 @@ import org.overture.interpreter.values.SeqValue;
 import org.overture.interpreter.values.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 public class StateCache
 {
@@ -65,23 +50,71 @@ public class StateCache
 	public final boolean[] booleans;
 	public final String[] strings;
 
-	final List<String> initialPendingSetParameterIdList = new Vector<String>();
-	
+	/**
+	 * the value references of the shared design parameters, and those set since the cache was created or reset
+	 */
+	private final BitSet parameterMask = new BitSet();
+	final BitSet pendingParameters;
+
 	public final Links links;
 
-	public StateCache(File linkFile) throws XPathExpressionException,
-			DOMException, SAXException, IOException,
-			ParserConfigurationException
+	/**
+	 * the int indexed binding plan compiled from the links
+	 */
+	final BindingPlan plan;
+
+	/**
+	 * the input values last pushed to the interpreter, indexed like the plan inputs. Numbers and booleans are kept as
+	 * their bit pattern
+	 */
+	private final long[] pushedBits;
+	private final String[] pushedStrings;
+	private boolean inputsPushed = false;
+
+	/**
+	 * the list returned by {@link #collectInputsFromCache()}, reused for every step
+	 */
+	private final List<NamedValue> inputBuffer = new Vector<NamedValue>();
+
+	/**
+	 * the output values of the last step not yet written into the cache, see {@link #markOutputsStale(Value[])}
+	 */
+	private Value[] staleOutputs;
+	private final BitSet stale = new BitSet();
+	private final BitSet outputMask = new BitSet();
+
+	private static final BooleanValue TRUE = new BooleanValue(true);
+	private static final BooleanValue FALSE = new BooleanValue(false);
+
+	public StateCache(File linkFile) throws IOException
 	{
-		links = createVdmLinks(linkFile);
+		ModelDescriptionReader description = ModelDescriptionReader.read(linkFile);
 
-		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-		Document doc = docBuilderFactory.newDocumentBuilder().parse(linkFile);
+		links = description.links;
+		plan = new BindingPlan(links);
+		pushedBits = new long[plan.inputs.size()];
+		pushedStrings = new String[plan.inputs.size()];
+		for (int ref : plan.outputs.refs)
+		{
+			outputMask.set(ref);
+		}
+		for (String id : links.getSharedDesignParameters().keySet())
+		{
+			try
+			{
+				parameterMask.set(Integer.parseInt(id));
+			} catch (NumberFormatException e)
+			{
+				logger.warn("Ignoring shared design parameter without a numeric value reference: {}", id);
+			}
+		}
+		// only masked bits are set, so the pending set never grows
+		pendingParameters = new BitSet(parameterMask.length());
 
-		reals = new double[getMaxInt(doc, "//ScalarVariable[Real]/@valueReference") + 1];
-		integers = new int[getMaxInt(doc, "//ScalarVariable[Integer]/@valueReference") + 1];
-		booleans = new boolean[getMaxInt(doc, "//ScalarVariable[Boolean]/@valueReference") + 1];
-		strings = new String[getMaxInt(doc, "//ScalarVariable[String]/@valueReference") + 1];
+		reals = new double[description.getArraySize(ExtendedLinkInfo.Type.Real)];
+		integers = new int[description.getArraySize(ExtendedLinkInfo.Type.Integer)];
+		booleans = new boolean[description.getArraySize(ExtendedLinkInfo.Type.Boolean)];
+		strings = new String[description.getArraySize(ExtendedLinkInfo.Type.String)];
 		
 		//strings are objects, so we need to initialize them to avoid null-pointers else where (we use the same code for all types)
 		for (int i = 0; i < strings.length; i++)
@@ -91,39 +124,78 @@ public class StateCache
 	}
 	
 	/**
-	 * mark a scalar variable as a pending parameter set if it is recorded as a parameter
-	 * @param idString the id string indicatint the parameter
+	 * Clears the cache to the state it has after construction, keeping the links and binding plan
+	 */
+	public void reset()
+	{
+		Arrays.fill(reals, 0);
+		Arrays.fill(integers, 0);
+		Arrays.fill(booleans, false);
+		Arrays.fill(strings, "");
+		pendingParameters.clear();
+
+		inputsPushed = false;
+		staleOutputs = null;
+		stale.clear();
+	}
+
+	/**
+	 * mark a scalar variable as a pending parameter set if it is recorded as a parameter. Setting a parameter again
+	 * leaves it marked once
+	 * @param id the value reference of the variable
 	 */
-	public void markParameterPending(int idString)
+	public void markParameterPending(int id)
 	{
-		String id = idString+"";
-		if(links.getSharedDesignParameters().keySet().contains(id))
+		if (id >= 0 && parameterMask.get(id))
 		{
-			initialPendingSetParameterIdList.add(id);
+			pendingParameters.set(id);
 		}
 	}
-	
+
+	/**
+	 * @return the links of the pending parameters by value reference, in value reference order
+	 */
 	public Map<String, LinkInfo> getPendingSetParameters()
 	{
-		Map<String, LinkInfo> map = links.getSharedDesignParameters();
-		map.keySet().retainAll(initialPendingSetParameterIdList);
+		Map<String, LinkInfo> parameters = links.getSharedDesignParameters();
+		Map<String, LinkInfo> map = new LinkedHashMap<String, LinkInfo>();
+		for (int id = pendingParameters.nextSetBit(0); id >= 0; id = pendingParameters.nextSetBit(id + 1))
+		{
+			String key = Integer.toString(id);
+			map.put(key, parameters.get(key));
+		}
 		return map;
 	}
 
+	/**
+	 * Collects the inputs that changed since they were last collected. The first call collects all inputs. Changes are
+	 * detected by comparing with the value last collected, so values written directly into the cache arrays are picked
+	 * up as well as values set through the FMI interface. The returned list is reused and only valid until the next call
+	 * 
+	 * @return the changed inputs
+	 * @throws ValueException
+	 */
 	public List<NamedValue> collectInputsFromCache() throws ValueException
 	{
-		List<NamedValue> inputs = new Vector<NamedValue>();
+		final BindingPlan.Ports ports = plan.inputs;
+		List<NamedValue> inputs = inputBuffer;
+		inputs.clear();
 
-		for (Entry<String, LinkInfo> entry : links.getInputs().entrySet())
+		for (int i = 0; i < ports.size(); i++)
 		{
+			int index = ports.refs[i];
+
+			if (!updatePushed(i, index))
+			{
+				continue;
+			}
 
 			Value value = null;
-			
-			int index = Integer.valueOf(entry.getKey());
-			switch (((ExtendedLinkInfo) entry.getValue()).type)
+
+			switch (ports.types[i])
 			{
 				case Boolean:
-					value =new BooleanValue( booleans[index] );
+					value = booleans[index] ? TRUE : FALSE;
 					break;
 				case Integer:
 					value = NumericValue.valueOf(integers[index],null);
@@ -132,211 +204,201 @@ public class StateCache
 					value = NumericValue.valueOf(reals[index],null);
 					break;
 				case String:
-					value =new SeqValue( strings[index]==null?"":strings[index]);
+					value =new SeqValue( pushedStrings[i]);
 					break;
 				default:
 					break;
 
 			}
 
-			inputs.add(new NamedValue(entry.getKey(),  value,-1));
-			logger.debug("Collecting inputs from cache name: '{}' value: '{}' size: '{}' valueref: '{}'", links.getBoundVariableInfo(entry.getKey()).getQualifiedNameString(), value, 1, entry.getKey());
+			inputs.add(new NamedValue(ports.names[i], value, index));
+			if (logger.isDebugEnabled())
+			{
+				logger.debug("Collecting inputs from cache name: '{}' value: '{}' size: '{}' valueref: '{}'", links.getBoundVariableInfo(ports.names[i]).getQualifiedNameString(), value, 1, index);
+			}
 		}
 
+		inputsPushed = true;
 		return inputs;
 	}
 
-	public void syncOutputsToCache(List<NamedValue> outputs) throws ValueException
+	/**
+	 * Records the current value of an input as pushed
+	 * 
+	 * @param i
+	 *            the plan index of the input
+	 * @param index
+	 *            the value reference of the input
+	 * @return true if the value differs from the value last pushed
+	 */
+	private boolean updatePushed(int i, int index)
 	{
-		for (NamedValue output : outputs)
+		if (inputsPushed && !isChanged(i, index))
 		{
-			ExtendedLinkInfo link = (ExtendedLinkInfo) links.getLinks().get(output.name);
-
-			Object vdmName = link.getQualifiedNameString();
-
-			int index = Integer.valueOf(output.name);
-			switch (link.type)
-			{
-				case Boolean:
-					booleans[index] = output.value.boolValue(null);
-					logger.debug("Sync output to fmi struct name: '{}' value: '{}' valueref: '{}'", vdmName, booleans[index], index);
-					break;
-				case Integer:
-					integers[index] = (int) output.value.intValue(null);
-					logger.debug("Sync output to fmi struct name: '{}' value: '{}' valueref: '{}'", vdmName, integers[index], index);
-					break;
-				case Real:
-					reals[index] = output.value.realValue(null);
-					logger.debug("Sync output to fmi struct name: '{}' value: '{}' valueref: '{}'", vdmName, reals[index], index);
-					break;
-				case String:
-					strings[index] =output.value.stringValue(null);
-					 logger.debug("Sync output to fmi struct name: '{}' value: '{}' valueref: '{}'",vdmName,strings[index],index);
-					break;
-				default:
-					break;
-
-			}
-
+			return false;
 		}
 
+		if (plan.inputs.types[i] == ExtendedLinkInfo.Type.String)
+		{
+			pushedStrings[i] = getString(index);
+		} else
+		{
+			pushedBits[i] = getBits(i, index);
+		}
+		return true;
 	}
 
 	/**
-	 * Utility method to calculate largest integer represented by the nodes obtained by the xpathquery
+	 * Checks if an input has changed since the inputs were last collected, without collecting them
 	 * 
-	 * @param doc
-	 * @param xpathQuery
-	 * @return
-	 * @throws XPathExpressionException
-	 * @throws DOMException
+	 * @return true if an input differs from the value last pushed, or the inputs have never been pushed
 	 */
-	static int getMaxInt(Document doc, String xpathQuery)
-			throws XPathExpressionException, DOMException
+	public boolean hasChangedInputs()
 	{
-		XPathFactory xPathfactory = XPathFactory.newInstance();
-		XPath xpath = xPathfactory.newXPath();
-
-		int max = 0;
-
-		for (Node n : new NodeIterator(lookup(doc, xpath, xpathQuery)))
+		final BindingPlan.Ports ports = plan.inputs;
+		if (!inputsPushed)
 		{
-
-			String val = n.getNodeValue();
-			try
-			{
-				int nv = Integer.parseInt(val);
-				if (nv > max)
-				{
-					max = nv;
-				}
-
-			} catch (NumberFormatException e)
+			return ports.size() > 0;
+		}
+		for (int i = 0; i < ports.size(); i++)
+		{
+			if (isChanged(i, ports.refs[i]))
 			{
+				return true;
 			}
-
 		}
-		return max;
+		return false;
 	}
 
-	static Links createVdmLinks(File linkFile) throws SAXException,
-			IOException, ParserConfigurationException,
-			XPathExpressionException, DOMException
+	/**
+	 * @return true if the input differs from the value last pushed
+	 */
+	private boolean isChanged(int i, int index)
 	{
-		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-		Document doc = docBuilderFactory.newDocumentBuilder().parse(linkFile);
-
-		XPathFactory xPathfactory = XPathFactory.newInstance();
-		XPath xpath = xPathfactory.newXPath();
-
-		final Map<String, LinkInfo> link = new HashMap<String, LinkInfo>();
-		final List<String> outputs = new Vector<String>();
-		final List<String> inputs = new Vector<String>();
-		final List<String> designParameters = new Vector<String>();
-
-		for (Node n : new NodeIterator(lookup(doc, xpath, "//ScalarVariable")))
+		switch (plan.inputs.types[i])
 		{
-			NamedNodeMap attributes = n.getAttributes();
-			String valRef = attributes.getNamedItem("valueReference").getNodeValue();
-
-			String name = null;
-
-			NodeList nameNodes = lookup(doc, xpath, "/fmiModelDescription/VendorAnnotations/Tool[@name='Overture']/Overture/link[@valueReference='"
-					+ valRef + "']/@name");
-			if (nameNodes != null && nameNodes.getLength() > 0)
-			{
-
-				name = nameNodes.item(0).getNodeValue();
-			}
-
-			if (name == null)
-			{
-				name = attributes.getNamedItem("name").getNodeValue();
-			}
-
-			List<String> qualifiedName = Arrays.asList(name.split("\\."));
-			ExtendedLinkInfo.Type type = ExtendedLinkInfo.Type.Real;
-
-			for (@SuppressWarnings("unused")
-			Node n1 : new NodeIterator(lookup(n, xpath, "Real")))
-			{
-				type = ExtendedLinkInfo.Type.Real;
-			}
-
-			for (@SuppressWarnings("unused")
-			Node n1 : new NodeIterator(lookup(n, xpath, "Boolean")))
-			{
-				type = ExtendedLinkInfo.Type.Boolean;
-			}
-
-			for (@SuppressWarnings("unused")
-			Node n1 : new NodeIterator(lookup(n, xpath, "Integer")))
-			{
-				type = ExtendedLinkInfo.Type.Integer;
-			}
-			
-			for (@SuppressWarnings("unused")
-			Node n1 : new NodeIterator(lookup(n, xpath, "String")))
-			{
-				type = ExtendedLinkInfo.Type.String;
-			}
+			case Boolean:
+			case Integer:
+			case Real:
+				return pushedBits[i] != getBits(i, index);
+			case String:
+				return !getString(index).equals(pushedStrings[i]);
+			default:
+				return false;
+		}
+	}
 
-			link.put(valRef, new ExtendedLinkInfo(valRef, qualifiedName, 0, type));
+	/**
+	 * @return the value of a number or boolean input as its bit pattern
+	 */
+	private long getBits(int i, int index)
+	{
+		switch (plan.inputs.types[i])
+		{
+			case Boolean:
+				return booleans[index] ? 1 : 0;
+			case Integer:
+				return integers[index];
+			case Real:
+				return Double.doubleToLongBits(reals[index]);
+			default:
+				return 0;
+		}
+	}
 
-			String causality = attributes.getNamedItem("causality").getNodeValue();
+	private String getString(int index)
+	{
+		return strings[index] == null ? "" : strings[index];
+	}
 
-			if ("output".equals(causality)|| "local".equals(causality))
-			{
-				outputs.add(valRef);
-			} else if ("input".equals(causality))
-			{
-				inputs.add(valRef);
-			} else if ("parameter".equals(causality))
-			{
-				designParameters.add(valRef);
-			}
+	/**
+	 * Writes the outputs obtained from a step into the cache
+	 * 
+	 * @param outputs
+	 *            the output values indexed by value reference
+	 * @throws ValueException
+	 */
+	public void syncOutputsToCache(Value[] outputs) throws ValueException
+	{
+		staleOutputs = null;
+		stale.clear();
 
+		final BindingPlan.Ports ports = plan.outputs;
+		for (int i = 0; i < ports.size(); i++)
+		{
+			syncOutput(ports.refs[i], outputs[ports.refs[i]]);
 		}
 
-		return new Links(link, outputs, inputs, new Vector<String>(), designParameters, new Vector<String>());
 	}
 
-	final static boolean DEBUG = false;
-
-	static NodeList lookup(Object doc, XPath xpath, String expression)
-			throws XPathExpressionException
+	/**
+	 * Marks all outputs as stale instead of writing them into the cache. The outputs are written one by one when
+	 * requested through {@link #syncStaleOutput(int)}. The values must stay unchanged until the next step, which holds
+	 * for the output handles of the simulation manager since the model only runs inside a step
+	 * 
+	 * @param outputs
+	 *            the output values indexed by value reference
+	 */
+	public void markOutputsStale(Value[] outputs)
 	{
-		XPathExpression expr = xpath.compile(expression);
+		staleOutputs = outputs;
+		stale.clear();
+		stale.or(outputMask);
+	}
 
-		if (DEBUG)
+	/**
+	 * Writes a single output into the cache if it is stale
+	 * 
+	 * @param index
+	 *            the value reference
+	 * @throws ValueException
+	 */
+	public void syncStaleOutput(int index) throws ValueException
+	{
+		if (stale.get(index))
 		{
-			// System.out.println("Starting from: " + formateNodeWithAtt(doc));
+			stale.clear(index);
+			syncOutput(index, staleOutputs[index]);
 		}
-		final NodeList list = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+	}
 
-		if (DEBUG)
+	/**
+	 * Writes all stale outputs into the cache
+	 * 
+	 * @throws ValueException
+	 */
+	public void syncStaleOutputs() throws ValueException
+	{
+		for (int index = stale.nextSetBit(0); index >= 0; index = stale.nextSetBit(index + 1))
 		{
-			System.out.print("\tFound: ");
+			syncStaleOutput(index);
 		}
-		boolean first = true;
-		for (@SuppressWarnings("unused")
-		Node n : new NodeIterator(list))
+	}
+
+	private void syncOutput(int index, Value value) throws ValueException
+	{
+		switch (plan.types[index])
 		{
-			if (DEBUG)
-			{
-				// System.out.println((!first ? "\t " : "")
-				// + formateNodeWithAtt(n));
-			}
-			first = false;
+			case Boolean:
+				booleans[index] = value.boolValue(null);
+				break;
+			case Integer:
+				integers[index] = (int) value.intValue(null);
+				break;
+			case Real:
+				reals[index] = value.realValue(null);
+				break;
+			case String:
+				strings[index] =value.stringValue(null);
+				break;
+			default:
+				break;
+
 		}
-		if (first)
+
+		if (logger.isDebugEnabled())
 		{
-			if (DEBUG)
-			{
-				System.out.println("none");
-			}
+			logger.debug("Sync output to fmi struct name: '{}' value: '{}' valueref: '{}'", links.getBoundVariableInfo(index + "").getQualifiedNameString(), value, index);
 		}
-		return list;
-
 	}
 }
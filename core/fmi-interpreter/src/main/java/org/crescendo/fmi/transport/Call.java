@@ -0,0 +1,436 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.crescendo.fmi.CrescendoFmu;
+import org.crescendo.fmi.Fmi2CombinedStep;
+import org.crescendo.fmi.FmuMetrics;
+
+import com.google.protobuf.AbstractMessage;
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2Empty;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2InstantiateRequest;
+import com.lausdahl.examples.Service.Fmi2SetBooleanRequest;
+import com.lausdahl.examples.Service.Fmi2SetDebugLoggingRequest;
+import com.lausdahl.examples.Service.Fmi2SetIntegerRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2SetStringRequest;
+import com.lausdahl.examples.Service.Fmi2SetupExperimentRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+import com.lausdahl.examples.Service.Fmi2StatusRequest;
+
+/**
+ * The calls of a framed transport. Each call is identified by its id in a frame, the request and the reply are the
+ * serialized protobuf messages of the shared memory protocol. A call without a reply, or an unsupported one, replies
+ * with no message, which is not the same as an empty one as a message of default values serializes to no bytes
+ */
+public enum Call
+{
+	Instantiate(1, FmuMetrics.Kind.Instantiate)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.Instantiate(Fmi2InstantiateRequest.parseFrom(request)));
+		}
+	},
+	SetupExperiment(2)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.SetupExperiment(Fmi2SetupExperimentRequest.parseFrom(request)));
+		}
+	},
+	EnterInitializationMode(3)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.EnterInitializationMode(Fmi2Empty.parseFrom(request)));
+		}
+	},
+	ExitInitializationMode(4, FmuMetrics.Kind.ExitInitializationMode)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.ExitInitializationMode(Fmi2Empty.parseFrom(request)));
+		}
+	},
+	Terminate(5)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.Terminate(Fmi2Empty.parseFrom(request)));
+		}
+	},
+	Reset(6)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.Reset(Fmi2Empty.parseFrom(request)));
+		}
+	},
+	SetDebugLogging(7)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.SetDebugLogging(Fmi2SetDebugLoggingRequest.parseFrom(request)));
+		}
+	},
+	DoStep(8)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.DoStep(Fmi2DoStepRequest.parseFrom(request)));
+		}
+	},
+	GetMaxStepSize(9)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetMaxStepSize(Fmi2Empty.parseFrom(request)));
+		}
+	},
+	GetReal(10, FmuMetrics.Kind.GetReal)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetReal(Fmi2GetRequest.parseFrom(request)));
+		}
+	},
+	GetInteger(11, FmuMetrics.Kind.GetInteger)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetInteger(Fmi2GetRequest.parseFrom(request)));
+		}
+	},
+	GetBoolean(12, FmuMetrics.Kind.GetBoolean)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetBoolean(Fmi2GetRequest.parseFrom(request)));
+		}
+	},
+	GetString(13, FmuMetrics.Kind.GetString)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetString(Fmi2GetRequest.parseFrom(request)));
+		}
+	},
+	SetReal(14, FmuMetrics.Kind.SetReal)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.SetReal(Fmi2SetRealRequest.parseFrom(request)));
+		}
+	},
+	SetInteger(15, FmuMetrics.Kind.SetInteger)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.SetInteger(Fmi2SetIntegerRequest.parseFrom(request)));
+		}
+	},
+	SetBoolean(16, FmuMetrics.Kind.SetBoolean)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.SetBoolean(Fmi2SetBooleanRequest.parseFrom(request)));
+		}
+	},
+	SetString(17, FmuMetrics.Kind.SetString)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.SetString(Fmi2SetStringRequest.parseFrom(request)));
+		}
+	},
+	GetStatus(18)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetStatus(Fmi2StatusRequest.parseFrom(request)));
+		}
+	},
+	GetRealStatus(19)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetRealStatus(Fmi2StatusRequest.parseFrom(request)));
+		}
+	},
+	GetIntegerStatus(20)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetIntegerStatus(Fmi2StatusRequest.parseFrom(request)));
+		}
+	},
+	GetBooleanStatus(21)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetBooleanStatus(Fmi2StatusRequest.parseFrom(request)));
+		}
+	},
+	GetStringStatus(22)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return bytes(fmu.GetStringStatus(Fmi2StatusRequest.parseFrom(request)));
+		}
+	},
+	FreeInstantiate(23)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			fmu.FreeInstantiate(Fmi2Empty.parseFrom(request));
+			return NO_REPLY;
+		}
+	},
+	/**
+	 * see {@link CrescendoFmu#CombinedStep(Fmi2CombinedStep.Request)}. This call and the ones after it are specific to
+	 * this transport, the shared memory protocol of the native wrapper has no messages for them
+	 */
+	CombinedStep(24)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			return fmu.CombinedStep(Fmi2CombinedStep.Request.parseFrom(request)).toByteArray();
+		}
+	},
+	/**
+	 * see {@link CrescendoFmu#CancelStep()}, does not wait for the pending step
+	 */
+	CancelStep(28)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			Fmi2Empty.parseFrom(request);
+			return bytes(fmu.CancelStep());
+		}
+	},
+	/**
+	 * see {@link CrescendoFmu#GetRealBulk(ByteBuffer, ByteBuffer)}, the request is the value references and the reply
+	 * the values, see {@link #getRequestCount(byte[])}
+	 */
+	GetRealBulk(29, FmuMetrics.Kind.GetReal)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			ByteBuffer values = ByteBuffer.allocate(getRequestCount(request) * 8);
+			return getReply(fmu.GetRealBulk(ByteBuffer.wrap(request), values), values);
+		}
+	},
+	GetIntegerBulk(30, FmuMetrics.Kind.GetInteger)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			ByteBuffer values = ByteBuffer.allocate(getRequestCount(request) * 4);
+			return getReply(fmu.GetIntegerBulk(ByteBuffer.wrap(request), values), values);
+		}
+	},
+	GetBooleanBulk(31, FmuMetrics.Kind.GetBoolean)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			ByteBuffer values = ByteBuffer.allocate(getRequestCount(request));
+			return getReply(fmu.GetBooleanBulk(ByteBuffer.wrap(request), values), values);
+		}
+	},
+	/**
+	 * see {@link CrescendoFmu#SetRealBulk(ByteBuffer, ByteBuffer)}, the request is the count of values, the value
+	 * references and the values, see {@link #setRequestCount(byte[])}
+	 */
+	SetRealBulk(32, FmuMetrics.Kind.SetReal)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			int count = setRequestCount(request);
+			return bytes(fmu.SetRealBulk(setRefs(request, count), setValues(request, count)));
+		}
+	},
+	SetIntegerBulk(33, FmuMetrics.Kind.SetInteger)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			int count = setRequestCount(request);
+			return bytes(fmu.SetIntegerBulk(setRefs(request, count), setValues(request, count)));
+		}
+	},
+	SetBooleanBulk(34, FmuMetrics.Kind.SetBoolean)
+	{
+		@Override
+		byte[] invoke(CrescendoFmu fmu, byte[] request) throws IOException
+		{
+			int count = setRequestCount(request);
+			return bytes(fmu.SetBooleanBulk(setRefs(request, count), setValues(request, count)));
+		}
+	};
+
+	static final byte[] NO_REPLY = null;
+
+	private static final Call[] BY_ID = new Call[40];
+
+	static
+	{
+		for (Call call : values())
+		{
+			BY_ID[call.id] = call;
+		}
+	}
+
+	/**
+	 * the id of the call in a frame
+	 */
+	public final int id;
+
+	/**
+	 * the metric the call is recorded in, null if it is not recorded
+	 */
+	final FmuMetrics.Kind kind;
+
+	private Call(int id)
+	{
+		this(id, null);
+	}
+
+	private Call(int id, FmuMetrics.Kind kind)
+	{
+		this.id = id;
+		this.kind = kind;
+	}
+
+	/**
+	 * Invokes the call on the instance
+	 * 
+	 * @param fmu
+	 *            the instance
+	 * @param request
+	 *            the serialized request
+	 * @return the serialized reply
+	 * @throws IOException
+	 *             if the request cannot be parsed
+	 */
+	abstract byte[] invoke(CrescendoFmu fmu, byte[] request)
+			throws IOException;
+
+	private static byte[] bytes(AbstractMessage reply)
+	{
+		return reply == null ? NO_REPLY : reply.toByteArray();
+	}
+
+	/**
+	 * The request of a bulk get is the value references as little-endian 32 bit integers
+	 * 
+	 * @return the number of values requested
+	 * @throws IOException
+	 *             if the request is not a whole number of references
+	 */
+	static int getRequestCount(byte[] request) throws IOException
+	{
+		if (request.length % 4 != 0)
+		{
+			throw new IOException("Invalid bulk get request of " + request.length + " bytes");
+		}
+		return request.length / 4;
+	}
+
+	/**
+	 * The request of a bulk set is the number of values as a little-endian 32 bit integer, the value references as
+	 * little-endian 32 bit integers and the values in the layout of the bulk set
+	 * 
+	 * @return the number of values set
+	 * @throws IOException
+	 *             if the request is too short for the references
+	 */
+	static int setRequestCount(byte[] request) throws IOException
+	{
+		int count = request.length < 4 ? -1 : ByteBuffer.wrap(request).order(ByteOrder.LITTLE_ENDIAN).getInt();
+		if (count < 0 || count > (request.length - 4) / 4)
+		{
+			throw new IOException("Invalid bulk set request of " + request.length + " bytes");
+		}
+		return count;
+	}
+
+	private static ByteBuffer setRefs(byte[] request, int count)
+	{
+		return ByteBuffer.wrap(request, 4, count * 4);
+	}
+
+	private static ByteBuffer setValues(byte[] request, int count)
+	{
+		return ByteBuffer.wrap(request, 4 + count * 4, request.length - 4 - count * 4);
+	}
+
+	/**
+	 * @return the values of a bulk get, or no reply if it failed
+	 */
+	private static byte[] getReply(Fmi2StatusReply status, ByteBuffer values)
+	{
+		return status.getStatus() == Fmi2StatusReply.Status.Ok ? values.array() : NO_REPLY;
+	}
+
+	/**
+	 * @return the call with the id or null if there is none
+	 */
+	public static Call valueOf(int id)
+	{
+		return id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+	}
+}
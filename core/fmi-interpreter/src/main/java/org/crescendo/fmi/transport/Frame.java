@@ -0,0 +1,223 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A batch of calls sent as one unit by the socket transport. All integers are big endian:
+ * 
+ * <pre>
+ * frame := header:int32 body
+ * header:  bit 31 is set if the body is deflated, the other bits hold the number of calls
+ * body  := call*count | length:int32 deflated:byte[length]
+ * call  := id:int32 length:int32 message:byte[length]
+ * </pre>
+ * 
+ * A call without a message has the length -1, its message is null.
+ * 
+ * A frame whose messages, or deflated body, exceed {@link #MAX_SIZE} bytes is rejected before it is buffered.
+ */
+final class Frame
+{
+	private static final int DEFLATED = 0x80000000;
+	private static final int NO_MESSAGE = -1;
+
+	/**
+	 * the maximum size in bytes of the messages of a frame, 64 MiB unless set by crescendo.fmi.maxFrameSize
+	 */
+	static final int MAX_SIZE = Integer.getInteger("crescendo.fmi.maxFrameSize", 64 << 20);
+
+	final List<Integer> ids = new Vector<Integer>();
+	final List<byte[]> messages = new Vector<byte[]>();
+	final boolean deflated;
+
+	Frame(boolean deflated)
+	{
+		this.deflated = deflated;
+	}
+
+	void add(int id, byte[] message)
+	{
+		ids.add(id);
+		messages.add(message);
+	}
+
+	int size()
+	{
+		return ids.size();
+	}
+
+	/**
+	 * Writes the frame, the stream is not flushed
+	 */
+	void write(DataOutputStream out) throws IOException
+	{
+		if (!deflated)
+		{
+			out.writeInt(size());
+			writeCalls(out);
+			return;
+		}
+
+		ByteArrayOutputStream calls = new ByteArrayOutputStream();
+		writeCalls(new DataOutputStream(calls));
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try
+		{
+			deflater.setInput(calls.toByteArray());
+			deflater.finish();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished())
+			{
+				bytes.write(buffer, 0, deflater.deflate(buffer));
+			}
+
+			out.writeInt(DEFLATED | size());
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		} finally
+		{
+			deflater.end();
+		}
+	}
+
+	private void writeCalls(DataOutputStream out) throws IOException
+	{
+		for (int i = 0; i < size(); i++)
+		{
+			byte[] message = messages.get(i);
+			out.writeInt(ids.get(i));
+			if (message == null)
+			{
+				out.writeInt(NO_MESSAGE);
+				continue;
+			}
+			out.writeInt(message.length);
+			out.write(message);
+		}
+	}
+
+	/**
+	 * Reads a frame
+	 * 
+	 * @return the frame or null if the stream ended before the frame
+	 * @throws IOException
+	 *             if the stream ends within the frame or it is malformed
+	 */
+	static Frame read(DataInputStream in) throws IOException
+	{
+		int header;
+		try
+		{
+			header = in.readInt();
+		} catch (EOFException e)
+		{
+			return null;
+		}
+
+		Frame frame = new Frame((header & DEFLATED) != 0);
+		int count = header & ~DEFLATED;
+
+		if (frame.deflated)
+		{
+			byte[] deflated = new byte[checkLength(in.readInt(), MAX_SIZE)];
+			in.readFully(deflated);
+			in = new DataInputStream(new ByteArrayInputStream(inflate(deflated)));
+		}
+
+		int remaining = MAX_SIZE;
+		for (int i = 0; i < count; i++)
+		{
+			int id = in.readInt();
+			int length = in.readInt();
+			if (length == NO_MESSAGE)
+			{
+				frame.add(id, null);
+				continue;
+			}
+			byte[] message = new byte[checkLength(length, remaining)];
+			in.readFully(message);
+			remaining -= message.length;
+			frame.add(id, message);
+		}
+		return frame;
+	}
+
+	/**
+	 * @return the length
+	 * @throws IOException
+	 *             if the length is negative or exceeds the limit
+	 */
+	private static int checkLength(int length, int limit) throws IOException
+	{
+		if (length < 0 || length > limit)
+		{
+			throw new IOException("Invalid frame length " + length
+					+ ", the maximum frame size is " + MAX_SIZE + " bytes");
+		}
+		return length;
+	}
+
+	private static byte[] inflate(byte[] deflated) throws IOException
+	{
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(deflated);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished())
+			{
+				int n = inflater.inflate(buffer);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					throw new IOException("Truncated deflated frame");
+				}
+				bytes.write(buffer, 0, n);
+				if (bytes.size() > MAX_SIZE)
+				{
+					throw new IOException("The inflated frame exceeds the maximum frame size of " + MAX_SIZE + " bytes");
+				}
+			}
+			return bytes.toByteArray();
+		} catch (DataFormatException e)
+		{
+			throw new IOException("Malformed deflated frame", e);
+		} finally
+		{
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client side of a {@link SocketTransport}. Calls are collected in a frame until it is flushed, and frames are sent
+ * without waiting for the replies of earlier ones. A reader thread completes the replies in the order the frames were
+ * sent
+ */
+public class RemoteConnection implements Closeable
+{
+	final static Logger logger = LoggerFactory.getLogger(RemoteConnection.class);
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private final boolean deflate;
+
+	private Frame batch;
+	private List<CompletableFuture<byte[]>> batchReplies;
+
+	/**
+	 * the replies of the frames sent and not yet answered, in the order they were sent
+	 */
+	private final BlockingQueue<List<CompletableFuture<byte[]>>> inFlight = new LinkedBlockingQueue<List<CompletableFuture<byte[]>>>();
+
+	/**
+	 * Connects to a socket transport
+	 * 
+	 * @param address
+	 *            the address the transport is bound to
+	 * @param deflate
+	 *            deflate the frames, for slow links
+	 * @throws IOException
+	 */
+	public RemoteConnection(InetSocketAddress address, boolean deflate)
+			throws IOException
+	{
+		this(address, deflate, null);
+	}
+
+	/**
+	 * Connects to a socket transport requiring a token
+	 * 
+	 * @param address
+	 *            the address the transport is bound to
+	 * @param deflate
+	 *            deflate the frames, for slow links
+	 * @param token
+	 *            the token of the transport, null if it requires none
+	 * @throws IOException
+	 */
+	public RemoteConnection(InetSocketAddress address, boolean deflate,
+			String token) throws IOException
+	{
+		this.deflate = deflate;
+		this.socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(address);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		if (token != null)
+		{
+			out.writeUTF(token);
+		}
+		newBatch();
+
+		Thread reader = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				read();
+			}
+		}, "Crescendo remote " + address);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void newBatch()
+	{
+		batch = new Frame(deflate);
+		batchReplies = new Vector<CompletableFuture<byte[]>>();
+	}
+
+	private void read()
+	{
+		IOException failure = null;
+		try
+		{
+			Frame reply;
+			while ((reply = Frame.read(in)) != null)
+			{
+				List<CompletableFuture<byte[]>> replies = inFlight.take();
+				for (int i = 0; i < replies.size(); i++)
+				{
+					if (i < reply.size())
+					{
+						replies.get(i).complete(reply.messages.get(i));
+					} else
+					{
+						replies.get(i).completeExceptionally(new IOException("Call not answered"));
+					}
+				}
+			}
+			failure = new IOException("Connection closed");
+		} catch (IOException e)
+		{
+			failure = e;
+		} catch (InterruptedException e)
+		{
+			failure = new IOException(e);
+		}
+
+		List<CompletableFuture<byte[]>> replies;
+		while ((replies = inFlight.poll()) != null)
+		{
+			for (CompletableFuture<byte[]> reply : replies)
+			{
+				reply.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * Adds a call to the current frame
+	 * 
+	 * @return the reply, completed once the frame is answered. It is null if the call has no reply or is not supported
+	 */
+	public synchronized Future<byte[]> submit(Call call, byte[] request)
+	{
+		CompletableFuture<byte[]> reply = new CompletableFuture<byte[]>();
+		batch.add(call.id, request);
+		batchReplies.add(reply);
+		return reply;
+	}
+
+	/**
+	 * Sends the current frame, if it holds any calls
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException
+	{
+		if (batch.size() == 0)
+		{
+			return;
+		}
+		// queued first so the reader never sees a reply before its frame
+		inFlight.add(batchReplies);
+		try
+		{
+			batch.write(out);
+			out.flush();
+		} finally
+		{
+			newBatch();
+		}
+	}
+
+	/**
+	 * Sends the call with the calls submitted before it and waits for the reply
+	 * 
+	 * @return the reply
+	 * @throws IOException
+	 */
+	public byte[] call(Call call, byte[] request) throws IOException
+	{
+		Future<byte[]> reply = submit(call, request);
+		flush();
+		return get(reply);
+	}
+
+	/**
+	 * Waits for a reply
+	 * 
+	 * @throws IOException
+	 *             if the connection failed before the reply arrived
+	 */
+	public static byte[] get(Future<byte[]> reply) throws IOException
+	{
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					return reply.get();
+				} catch (InterruptedException e)
+				{
+					interrupted = true;
+				} catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof IOException)
+					{
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally
+		{
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			socket.close();
+		} catch (IOException e)
+		{
+			logger.debug("Error closing the connection", e);
+		}
+	}
+}
@@ -0,0 +1,410 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.intocps.java.fmi.service.IServiceProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.lausdahl.examples.Service.Fmi2BooleanStatusReply;
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2Empty;
+import com.lausdahl.examples.Service.Fmi2GetBooleanReply;
+import com.lausdahl.examples.Service.Fmi2GetIntegerReply;
+import com.lausdahl.examples.Service.Fmi2GetMaxStepSizeReply;
+import com.lausdahl.examples.Service.Fmi2GetRealReply;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2GetStringReply;
+import com.lausdahl.examples.Service.Fmi2InstantiateRequest;
+import com.lausdahl.examples.Service.Fmi2IntegerStatusReply;
+import com.lausdahl.examples.Service.Fmi2RealStatusReply;
+import com.lausdahl.examples.Service.Fmi2SetBooleanRequest;
+import com.lausdahl.examples.Service.Fmi2SetDebugLoggingRequest;
+import com.lausdahl.examples.Service.Fmi2SetIntegerRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2SetStringRequest;
+import com.lausdahl.examples.Service.Fmi2SetupExperimentRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+import com.lausdahl.examples.Service.Fmi2StatusRequest;
+import com.lausdahl.examples.Service.Fmi2StringStatusReply;
+
+/**
+ * Forwards the calls of the native wrapper to an instance served by a {@link SocketTransport} on another host. Every
+ * call waits for its reply, so a Set call reports its own status. A call the remote instance does not answer gives a
+ * null reply, or fatal for the calls returning a status. The real, integer and boolean Get and Set calls are forwarded
+ * as the bulk calls, so the remote instance reads and writes its cache without protobuf messages. The log callbacks of
+ * the wrapper use shared memory, so the remote instance is instantiated without them and logs to its own console
+ */
+public abstract class RemoteServiceProxy implements IServiceProtocol
+{
+	final static Logger logger = LoggerFactory.getLogger(RemoteServiceProxy.class);
+
+	private static final Fmi2StatusReply fatal = Fmi2StatusReply.newBuilder().setStatus(Fmi2StatusReply.Status.Fatal).build();
+
+	private final RemoteConnection connection;
+
+	public RemoteServiceProxy(RemoteConnection connection)
+	{
+		this.connection = connection;
+	}
+
+	/**
+	 * Sends a call and waits for the reply
+	 * 
+	 * @return the reply or null if the connection failed or the call was not answered
+	 */
+	private byte[] call(Call call, byte[] request)
+	{
+		try
+		{
+			byte[] reply = connection.call(call, request);
+			if (reply == null)
+			{
+				logger.error("Remote {} not answered", call);
+			}
+			return reply;
+		} catch (IOException e)
+		{
+			logger.error("Remote " + call + " failed", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sends a call returning a status and waits for it
+	 * 
+	 * @return the status, fatal if the connection failed or the call was not answered
+	 */
+	private Fmi2StatusReply status(Call call, byte[] request)
+	{
+		byte[] reply = call(call, request);
+		if (reply == null)
+		{
+			return fatal;
+		}
+		try
+		{
+			return Fmi2StatusReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return fatal;
+		}
+	}
+
+	/**
+	 * @return a bulk set request with room for the count of references and values of the size, positioned after the
+	 *         count, see {@link Call#setRequestCount(byte[])}
+	 */
+	private static ByteBuffer setRequest(int count, int size)
+	{
+		ByteBuffer request = ByteBuffer.allocate(4 + count * (4 + size)).order(ByteOrder.LITTLE_ENDIAN);
+		request.putInt(count);
+		return request;
+	}
+
+	/**
+	 * Sends the value references of a get as a bulk get and waits for the values
+	 * 
+	 * @return the values or null if the call failed
+	 */
+	private ByteBuffer bulkGet(Call call, Fmi2GetRequest request)
+	{
+		ByteBuffer refs = ByteBuffer.allocate(request.getValueReferenceCount() * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < request.getValueReferenceCount(); i++)
+		{
+			refs.putInt((int) request.getValueReference(i));
+		}
+		byte[] reply = call(call, refs.array());
+		return reply == null ? null : ByteBuffer.wrap(reply).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public void error(String message)
+	{
+		logger.error(message);
+	}
+
+	@Override
+	public void error(InvalidProtocolBufferException e)
+	{
+		logger.error("Invalid message", e);
+	}
+
+	@Override
+	public Fmi2StatusReply Instantiate(Fmi2InstantiateRequest request)
+	{
+		return status(Call.Instantiate, request.toBuilder().setLogginOn(false).setCallbackShmName("").build().toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply SetupExperiment(Fmi2SetupExperimentRequest request)
+	{
+		return status(Call.SetupExperiment, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply EnterInitializationMode(Fmi2Empty request)
+	{
+		return status(Call.EnterInitializationMode, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply ExitInitializationMode(Fmi2Empty request)
+	{
+		return status(Call.ExitInitializationMode, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply Terminate(Fmi2Empty request)
+	{
+		return status(Call.Terminate, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply Reset(Fmi2Empty request)
+	{
+		return status(Call.Reset, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply SetDebugLogging(Fmi2SetDebugLoggingRequest request)
+	{
+		return status(Call.SetDebugLogging, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply DoStep(Fmi2DoStepRequest request)
+	{
+		return status(Call.DoStep, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply GetStatus(Fmi2StatusRequest request)
+	{
+		return status(Call.GetStatus, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2StatusReply SetReal(Fmi2SetRealRequest request)
+	{
+		int count = request.getValueReferenceCount();
+		ByteBuffer bulk = setRequest(count, 8);
+		for (int i = 0; i < count; i++)
+		{
+			bulk.putInt(request.getValueReference(i));
+		}
+		for (int i = 0; i < count; i++)
+		{
+			bulk.putDouble(request.getValues(i));
+		}
+		return status(Call.SetRealBulk, bulk.array());
+	}
+
+	@Override
+	public Fmi2StatusReply SetInteger(Fmi2SetIntegerRequest request)
+	{
+		int count = request.getValueReferenceCount();
+		ByteBuffer bulk = setRequest(count, 4);
+		for (int i = 0; i < count; i++)
+		{
+			bulk.putInt(request.getValueReference(i));
+		}
+		for (int i = 0; i < count; i++)
+		{
+			bulk.putInt(request.getValues(i));
+		}
+		return status(Call.SetIntegerBulk, bulk.array());
+	}
+
+	@Override
+	public Fmi2StatusReply SetBoolean(Fmi2SetBooleanRequest request)
+	{
+		int count = request.getValueReferenceCount();
+		ByteBuffer bulk = setRequest(count, 1);
+		for (int i = 0; i < count; i++)
+		{
+			bulk.putInt(request.getValueReference(i));
+		}
+		for (int i = 0; i < count; i++)
+		{
+			bulk.put((byte) (request.getValues(i) ? 1 : 0));
+		}
+		return status(Call.SetBooleanBulk, bulk.array());
+	}
+
+	@Override
+	public Fmi2StatusReply SetString(Fmi2SetStringRequest request)
+	{
+		return status(Call.SetString, request.toByteArray());
+	}
+
+	@Override
+	public Fmi2GetMaxStepSizeReply GetMaxStepSize(Fmi2Empty request)
+	{
+		byte[] reply = call(Call.GetMaxStepSize, request.toByteArray());
+		try
+		{
+			return reply == null ? null : Fmi2GetMaxStepSizeReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return null;
+		}
+	}
+
+	@Override
+	public Fmi2GetRealReply GetReal(Fmi2GetRequest request)
+	{
+		ByteBuffer values = bulkGet(Call.GetRealBulk, request);
+		if (values == null)
+		{
+			return null;
+		}
+		Fmi2GetRealReply.Builder reply = Fmi2GetRealReply.newBuilder();
+		while (values.hasRemaining())
+		{
+			reply.addValues(values.getDouble());
+		}
+		return reply.build();
+	}
+
+	@Override
+	public Fmi2GetIntegerReply GetInteger(Fmi2GetRequest request)
+	{
+		ByteBuffer values = bulkGet(Call.GetIntegerBulk, request);
+		if (values == null)
+		{
+			return null;
+		}
+		Fmi2GetIntegerReply.Builder reply = Fmi2GetIntegerReply.newBuilder();
+		while (values.hasRemaining())
+		{
+			reply.addValues(values.getInt());
+		}
+		return reply.build();
+	}
+
+	@Override
+	public Fmi2GetBooleanReply GetBoolean(Fmi2GetRequest request)
+	{
+		ByteBuffer values = bulkGet(Call.GetBooleanBulk, request);
+		if (values == null)
+		{
+			return null;
+		}
+		Fmi2GetBooleanReply.Builder reply = Fmi2GetBooleanReply.newBuilder();
+		while (values.hasRemaining())
+		{
+			reply.addValues(values.get() != 0);
+		}
+		return reply.build();
+	}
+
+	@Override
+	public Fmi2GetStringReply GetString(Fmi2GetRequest request)
+	{
+		byte[] reply = call(Call.GetString, request.toByteArray());
+		try
+		{
+			return reply == null ? null : Fmi2GetStringReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return null;
+		}
+	}
+
+	@Override
+	public Fmi2RealStatusReply GetRealStatus(Fmi2StatusRequest request)
+	{
+		byte[] reply = call(Call.GetRealStatus, request.toByteArray());
+		try
+		{
+			return reply == null ? null : Fmi2RealStatusReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return null;
+		}
+	}
+
+	@Override
+	public Fmi2IntegerStatusReply GetIntegerStatus(Fmi2StatusRequest request)
+	{
+		byte[] reply = call(Call.GetIntegerStatus, request.toByteArray());
+		try
+		{
+			return reply == null ? null : Fmi2IntegerStatusReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return null;
+		}
+	}
+
+	@Override
+	public Fmi2BooleanStatusReply GetBooleanStatus(Fmi2StatusRequest request)
+	{
+		byte[] reply = call(Call.GetBooleanStatus, request.toByteArray());
+		try
+		{
+			return reply == null ? null : Fmi2BooleanStatusReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return null;
+		}
+	}
+
+	@Override
+	public Fmi2StringStatusReply GetStringStatus(Fmi2StatusRequest request)
+	{
+		byte[] reply = call(Call.GetStringStatus, request.toByteArray());
+		try
+		{
+			return reply == null ? null : Fmi2StringStatusReply.parseFrom(reply);
+		} catch (InvalidProtocolBufferException e)
+		{
+			error(e);
+			return null;
+		}
+	}
+
+	@Override
+	public void FreeInstantiate(Fmi2Empty request)
+	{
+		call(Call.FreeInstantiate, request.toByteArray());
+		connection.close();
+		close();
+	}
+
+	/**
+	 * Called when the instance has been freed
+	 */
+	public abstract void close();
+}
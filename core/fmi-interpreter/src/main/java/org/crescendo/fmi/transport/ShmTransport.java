@@ -0,0 +1,97 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.crescendo.fmi.CrescendoFmu;
+import org.crescendo.fmi.MeteredService;
+import org.intocps.java.fmi.service.IServiceProtocol;
+import org.intocps.java.fmi.service.ProtocolDriver;
+
+/**
+ * The shared memory transport of the fmi-shm-server, the one the native wrapper uses by default
+ */
+public class ShmTransport implements Transport
+{
+	static final String NAME = "shm";
+
+	static class Provider implements TransportProvider
+	{
+		@Override
+		public String getName()
+		{
+			return NAME;
+		}
+
+		@Override
+		public Transport create(String key, CrescendoFmu fmu, String address,
+				String token)
+		{
+			return new ShmTransport(key, fmu);
+		}
+	}
+
+	private final ProtocolDriver driver;
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	/**
+	 * @param memoryKey
+	 *            the shared memory name
+	 * @param fmu
+	 *            the instance serving the calls, they are recorded in its metrics
+	 */
+	public ShmTransport(String memoryKey, CrescendoFmu fmu)
+	{
+		this(memoryKey, new MeteredService(fmu));
+	}
+
+	/**
+	 * @param memoryKey
+	 *            the shared memory name
+	 * @param service
+	 *            the instance or proxy serving the calls
+	 */
+	public ShmTransport(String memoryKey, IServiceProtocol service)
+	{
+		this.driver = new ProtocolDriver(memoryKey, service);
+	}
+
+	@Override
+	public void open() throws Exception
+	{
+		driver.open();
+	}
+
+	@Override
+	public void await() throws InterruptedException
+	{
+		closed.await();
+	}
+
+	@Override
+	public void close()
+	{
+		driver.close();
+		closed.countDown();
+	}
+}
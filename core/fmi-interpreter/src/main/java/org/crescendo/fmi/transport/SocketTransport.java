@@ -0,0 +1,335 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+
+import org.crescendo.fmi.CrescendoFmu;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the calls over a socket, bound to the loopback address unless another address is given. Used on hosts where
+ * shared memory segments are constrained, and to serve an instance to a {@link RemoteServiceProxy} on another host.
+ * The calls are batched in frames, so a client can send its Set calls, the DoStep and its Get calls in one round trip,
+ * see {@link Frame}. A request frame is answered by a reply frame with a call for each request in the same order,
+ * holding the id of the request and the reply message, see {@link Call}. The reply is deflated if the request was.
+ * Frames are read while earlier ones are answered, so a client may send several before reading the replies.
+ * FreeInstantiate ends the session and must be the last call of its frame. Asynchronous steps are only used by
+ * instances served here, since CancelStep is only served here. The port is written to
+ * {@code <java.io.tmpdir>/crescendo-<key>.port} once the socket is bound.
+ * <p>
+ * Any client that connects can run the model, so binding another address than the loopback address requires a token.
+ * With a token a connection starts with the token written by {@link DataOutputStream#writeUTF(String)}, and it is
+ * closed unless the token matches
+ */
+public class SocketTransport implements Transport
+{
+	final static Logger logger = LoggerFactory.getLogger(SocketTransport.class);
+
+	static final String NAME = "socket";
+
+	static class Provider implements TransportProvider
+	{
+		@Override
+		public String getName()
+		{
+			return NAME;
+		}
+
+		@Override
+		public Transport create(String key, CrescendoFmu fmu, String address,
+				String token)
+		{
+			InetSocketAddress bind = address == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)
+					: parseAddress(address);
+			return new SocketTransport(key, fmu, bind.getAddress(), bind.getPort(), token);
+		}
+	}
+
+	/**
+	 * the time a client has to present the token after connecting
+	 */
+	static final int TOKEN_TIMEOUT_MILLIS = 10000;
+
+	private final String key;
+	private final CrescendoFmu fmu;
+	private final InetSocketAddress bindAddress;
+	private final String token;
+
+	private ServerSocket serverSocket;
+	private volatile boolean closed = false;
+	private final CountDownLatch closedLatch = new CountDownLatch(1);
+
+	/**
+	 * @param key
+	 *            the key of the instance, names the port file
+	 * @param fmu
+	 *            the instance serving the calls
+	 * @param address
+	 *            the address to bind
+	 * @param port
+	 *            the port to bind, zero for any free port
+	 */
+	public SocketTransport(String key, CrescendoFmu fmu, InetAddress address,
+			int port)
+	{
+		this(key, fmu, address, port, null);
+	}
+
+	/**
+	 * @param key
+	 *            the key of the instance, names the port file
+	 * @param fmu
+	 *            the instance serving the calls
+	 * @param address
+	 *            the address to bind
+	 * @param port
+	 *            the port to bind, zero for any free port
+	 * @param token
+	 *            the token clients must present, null for none
+	 * @throws IllegalArgumentException
+	 *             if the address is not the loopback address and no token is given
+	 */
+	public SocketTransport(String key, CrescendoFmu fmu, InetAddress address,
+			int port, String token)
+	{
+		if (!address.isLoopbackAddress() && (token == null || token.isEmpty()))
+		{
+			throw new IllegalArgumentException("A token is required to serve on " + address
+					+ ", see the ShmServer --token option");
+		}
+		this.key = key;
+		this.fmu = fmu;
+		this.bindAddress = new InetSocketAddress(address, port);
+		this.token = token;
+		// a client can cancel a pending step with Call.CancelStep
+		fmu.enableAsyncStep();
+	}
+
+	/**
+	 * Parses a socket address
+	 * 
+	 * @param address
+	 *            host:port or just the port for the loopback address
+	 * @return the address
+	 * @throws IllegalArgumentException
+	 *             if the port is not a number
+	 */
+	public static InetSocketAddress parseAddress(String address)
+	{
+		int colon = address.lastIndexOf(':');
+		try
+		{
+			if (colon < 0)
+			{
+				return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+			}
+			return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+		} catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid address: " + address, e);
+		}
+	}
+
+	/**
+	 * @return the port file of an instance
+	 */
+	public static File getPortFile(String key)
+	{
+		return new File(System.getProperty("java.io.tmpdir"), "crescendo-"
+				+ key + ".port");
+	}
+
+	/**
+	 * @return the bound port, valid once opened
+	 */
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		serverSocket = new ServerSocket();
+		serverSocket.bind(bindAddress);
+		logger.debug("Serving '{}' on {}", key, serverSocket.getLocalSocketAddress());
+
+		File portFile = getPortFile(key);
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(portFile), "UTF-8"))
+		{
+			writer.write(Integer.toString(getPort()));
+		}
+		portFile.deleteOnExit();
+
+		Thread thread = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				accept();
+			}
+		}, "Crescendo transport " + key);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void accept()
+	{
+		while (!closed)
+		{
+			try (Socket socket = serverSocket.accept())
+			{
+				socket.setTcpNoDelay(true);
+				if (authenticate(socket))
+				{
+					serve(socket);
+				}
+			} catch (IOException e)
+			{
+				if (!closed)
+				{
+					logger.warn("Connection to '" + key + "' failed", e);
+				}
+			} catch (RuntimeException e)
+			{
+				// only the connection is dropped, the session keeps accepting
+				logger.error("Error serving '" + key + "'", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the token of a connection, if one is required
+	 * 
+	 * @return true if the connection may be served
+	 */
+	private boolean authenticate(Socket socket) throws IOException
+	{
+		if (token == null)
+		{
+			return true;
+		}
+
+		socket.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+		String given = new DataInputStream(socket.getInputStream()).readUTF();
+		socket.setSoTimeout(0);
+
+		if (!MessageDigest.isEqual(token.getBytes("UTF-8"), given.getBytes("UTF-8")))
+		{
+			logger.warn("Rejected a connection to '{}' from {} with an invalid token", key, socket.getRemoteSocketAddress());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Serves the frames of a connection until it is closed or the session is freed
+	 */
+	private void serve(Socket socket) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		Frame request;
+		while ((request = Frame.read(in)) != null)
+		{
+			Frame reply = new Frame(request.deflated);
+			Call free = null;
+			byte[] freeRequest = null;
+
+			for (int i = 0; i < request.size(); i++)
+			{
+				int id = request.ids.get(i);
+				Call call = Call.valueOf(id);
+				if (call == null)
+				{
+					throw new IOException("Unknown call: " + id);
+				}
+
+				if (call == Call.FreeInstantiate)
+				{
+					// freeing may end the JVM, so the frame is answered first
+					free = call;
+					freeRequest = request.messages.get(i);
+					reply.add(id, Call.NO_REPLY);
+					break;
+				}
+				long started = System.nanoTime();
+				reply.add(id, call.invoke(fmu, request.messages.get(i)));
+				if (call.kind != null)
+				{
+					fmu.getMetrics().record(call.kind, started);
+				}
+			}
+
+			reply.write(out);
+			out.flush();
+
+			if (free != null)
+			{
+				free.invoke(fmu, freeRequest);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void await() throws InterruptedException
+	{
+		closedLatch.await();
+	}
+
+	@Override
+	public void close()
+	{
+		closed = true;
+		try
+		{
+			if (serverSocket != null)
+			{
+				serverSocket.close();
+			}
+		} catch (IOException e)
+		{
+			logger.debug("Error closing the server socket", e);
+		}
+		getPortFile(key).delete();
+		closedLatch.countDown();
+	}
+}
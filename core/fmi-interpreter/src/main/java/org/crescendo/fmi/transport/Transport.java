@@ -0,0 +1,49 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+/**
+ * Carries the FMI calls of the native wrapper to a {@link org.crescendo.fmi.CrescendoFmu} instance. A transport is
+ * created by a {@link TransportProvider} for the key the wrapper passes on the command line
+ */
+public interface Transport
+{
+	/**
+	 * Starts serving calls. Returns once the wrapper can connect, the calls are served on threads of the transport
+	 * 
+	 * @throws Exception
+	 *             if the transport cannot be opened
+	 */
+	void open() throws Exception;
+
+	/**
+	 * Blocks until the transport is closed
+	 * 
+	 * @throws InterruptedException
+	 */
+	void await() throws InterruptedException;
+
+	/**
+	 * Stops serving calls and releases the resources of the transport
+	 */
+	void close();
+}
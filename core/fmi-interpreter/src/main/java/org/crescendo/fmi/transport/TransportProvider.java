@@ -0,0 +1,54 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import org.crescendo.fmi.CrescendoFmu;
+
+/**
+ * Creates transports of one kind. Providers besides the built in ones are found with {@link java.util.ServiceLoader}
+ * from {@code META-INF/services/org.crescendo.fmi.transport.TransportProvider}
+ */
+public interface TransportProvider
+{
+	/**
+	 * @return the name selecting the transport on the ShmServer command line
+	 */
+	String getName();
+
+	/**
+	 * Creates a transport for an instance
+	 * 
+	 * @param key
+	 *            the key passed by the native wrapper, the shared memory name of the instance
+	 * @param fmu
+	 *            the instance serving the calls
+	 * @param address
+	 *            the address to serve on given by the ShmServer --bind option, null for the default of the transport
+	 * @param token
+	 *            the token given by the ShmServer --token option that clients must present, null for none
+	 * @return the transport, not yet opened
+	 * @throws IllegalArgumentException
+	 *             if the address is invalid, or it needs a token and none is given
+	 */
+	Transport create(String key, CrescendoFmu fmu, String address,
+			String token);
+}
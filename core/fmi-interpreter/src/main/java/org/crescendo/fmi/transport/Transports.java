@@ -0,0 +1,81 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi.transport;
+
+import java.util.ServiceLoader;
+
+import org.crescendo.fmi.CrescendoFmu;
+
+/**
+ * Looks up the transport providers by name
+ */
+public final class Transports
+{
+	/**
+	 * the transport used when none is selected
+	 */
+	public static final String DEFAULT = ShmTransport.NAME;
+
+	private static final TransportProvider[] BUILT_IN = {
+			new ShmTransport.Provider(), new SocketTransport.Provider() };
+
+	private Transports()
+	{
+	}
+
+	/**
+	 * Creates a transport
+	 * 
+	 * @param name
+	 *            the name of the transport
+	 * @param key
+	 *            the key passed by the native wrapper
+	 * @param fmu
+	 *            the instance serving the calls
+	 * @param address
+	 *            the address to serve on, null for the default of the transport
+	 * @param token
+	 *            the token clients must present, null for none
+	 * @return the transport, not yet opened
+	 * @throws IllegalArgumentException
+	 *             if no provider has the name, the address is invalid or it needs a token and none is given
+	 */
+	public static Transport create(String name, String key, CrescendoFmu fmu,
+			String address, String token)
+	{
+		for (TransportProvider provider : BUILT_IN)
+		{
+			if (provider.getName().equals(name))
+			{
+				return provider.create(key, fmu, address, token);
+			}
+		}
+		for (TransportProvider provider : ServiceLoader.load(TransportProvider.class))
+		{
+			if (provider.getName().equals(name))
+			{
+				return provider.create(key, fmu, address, token);
+			}
+		}
+		throw new IllegalArgumentException("Unknown transport: " + name);
+	}
+}
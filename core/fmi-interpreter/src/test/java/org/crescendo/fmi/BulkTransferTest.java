@@ -0,0 +1,130 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkTransferTest
+{
+	CrescendoFmu fmu = null;
+
+	@Before
+	public void setup() throws IOException
+	{
+		fmu = new CrescendoFmu("bulk-transfer-test")
+		{
+
+			@Override
+			public void close()
+			{
+			}
+		};
+		fmu.state = new StateCache(new File("src/test/resources/modelDescription.xml".replace('/', File.separatorChar)));
+		fmu.protocolState = CrescendoFmu.CrescendoStateType.Instantiated;
+	}
+
+	private static ByteBuffer refs(int... refs)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(refs.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int ref : refs)
+		{
+			buffer.putInt(ref);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void testReals()
+	{
+		ByteBuffer values = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		values.putDouble(1.5).putDouble(-2.25).flip();
+		fmu.SetRealBulk(refs(1, 3), values);
+
+		Assert.assertEquals(1.5, fmu.state.reals[1], 0);
+		Assert.assertEquals(-2.25, fmu.state.reals[3], 0);
+
+		values.clear();
+		fmu.GetRealBulk(refs(3, 1), values);
+		values.flip();
+		Assert.assertEquals(-2.25, values.getDouble(), 0);
+		Assert.assertEquals(1.5, values.getDouble(), 0);
+	}
+
+	@Test
+	public void testNaNIsDiscarded()
+	{
+		ByteBuffer values = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		values.putDouble(Double.NaN).flip();
+
+		Assert.assertSame(CrescendoFmu.discard, fmu.SetRealBulk(refs(1), values));
+		Assert.assertEquals(0, fmu.state.reals[1], 0);
+	}
+
+	@Test
+	public void testBooleansAndIntegers()
+	{
+		ByteBuffer values = ByteBuffer.allocate(2);
+		values.put((byte) 1).put((byte) 0).flip();
+		fmu.SetBooleanBulk(refs(4, 2), values);
+		Assert.assertTrue(fmu.state.booleans[4]);
+		Assert.assertFalse(fmu.state.booleans[2]);
+
+		values = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		values.putInt(42).flip();
+		fmu.SetIntegerBulk(refs(0), values);
+
+		values.clear();
+		fmu.GetIntegerBulk(refs(0), values);
+		Assert.assertEquals(42, values.getInt(0));
+	}
+
+	@Test
+	public void testInvalidReference()
+	{
+		ByteBuffer values = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		values.putDouble(1.5).putDouble(2.5).flip();
+
+		Assert.assertSame(CrescendoFmu.error, fmu.SetRealBulk(refs(fmu.state.reals.length, 1), values));
+		Assert.assertEquals(2.5, fmu.state.reals[1], 0);
+
+		values.clear();
+		Assert.assertSame(CrescendoFmu.error, fmu.GetRealBulk(refs(-1), values));
+	}
+
+	@Test
+	public void testMissingValues()
+	{
+		ByteBuffer values = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		values.putInt(42).flip();
+
+		Assert.assertSame(CrescendoFmu.error, fmu.SetIntegerBulk(refs(0, 1), values));
+		Assert.assertEquals(0, fmu.state.integers[0]);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CdsArchiveTest
+{
+	@Test
+	public void testClassList()
+	{
+		Assert.assertEquals(new File("interpreter.classlist"), CdsArchive.getClassList(new File("interpreter.jsa")));
+		Assert.assertEquals(new File("dir", "archive.classlist"), CdsArchive.getClassList(new File("dir", "archive")));
+	}
+
+	@Test
+	public void testDumpCommand()
+	{
+		List<String> command = CdsArchive.dumpCommand(new File("interpreter.classlist"), new File("interpreter.jsa.tmp"), "a.jar");
+
+		// the archive must be dumped from the class path the server runs with
+		Assert.assertEquals("a.jar", command.get(command.indexOf("-cp") + 1));
+		Assert.assertTrue(command.contains("-Xshare:dump"));
+		Assert.assertTrue(command.contains("-XX:SharedArchiveFile=interpreter.jsa.tmp"));
+		Assert.assertFalse(command.contains("-XX:+IgnoreUnrecognizedVMOptions"));
+	}
+
+	@Test
+	public void testDumpOnce() throws IOException
+	{
+		File dir = Files.createTempDirectory("cds-test").toFile();
+		File archive = new File(dir, "interpreter.jsa");
+
+		Assert.assertFalse("No class list", CdsArchive.dumpIfMissing(archive));
+
+		Files.write(new File(dir, "interpreter.classlist").toPath(), new byte[0]);
+		Files.write(new File(dir, "interpreter.jsa" + CdsArchive.LOCK_SUFFIX).toPath(), new byte[0]);
+		Assert.assertFalse("Dump started by another instance", CdsArchive.dumpIfMissing(archive));
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2GetRealReply;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+
+public class CombinedStepTest
+{
+	@Test
+	public void testRequest() throws IOException
+	{
+		Fmi2CombinedStep.Request request = new Fmi2CombinedStep.Request();
+		request.setReal = Fmi2SetRealRequest.newBuilder().addValueReference(3).addValues(1.5).build();
+		request.doStep = Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0.1).setCommunicationStepSize(0.01).build();
+		request.getReal = Fmi2GetRequest.newBuilder().addValueReference(1).addValueReference(2).build();
+
+		Fmi2CombinedStep.Request parsed = Fmi2CombinedStep.Request.parseFrom(request.toByteArray());
+
+		Assert.assertEquals(3, parsed.setReal.getValueReference(0));
+		Assert.assertEquals(1.5, parsed.setReal.getValues(0), 0);
+		Assert.assertEquals(0.1, parsed.doStep.getCurrentCommunicationPoint(), 0);
+		Assert.assertEquals(0.01, parsed.doStep.getCommunicationStepSize(), 0);
+		Assert.assertEquals(2, parsed.getReal.getValueReferenceCount());
+		Assert.assertNull(parsed.setInteger);
+		Assert.assertNull(parsed.getString);
+	}
+
+	@Test
+	public void testReply() throws IOException
+	{
+		Fmi2CombinedStep.Reply reply = new Fmi2CombinedStep.Reply();
+		reply.status = CrescendoFmu.fatal;
+		reply.real = Fmi2GetRealReply.newBuilder().addValues(2.5).build();
+		reply.doStepStatus = CrescendoFmu.ok;
+
+		Fmi2CombinedStep.Reply parsed = Fmi2CombinedStep.Reply.parseFrom(reply.toByteArray());
+		Assert.assertEquals(Fmi2StatusReply.Status.Fatal, parsed.status.getStatus());
+		Assert.assertEquals(2.5, parsed.real.getValues(0), 0);
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, parsed.doStepStatus.getStatus());
+		Assert.assertNull(parsed.integer);
+	}
+
+	@Test
+	public void testStepNotRun() throws IOException
+	{
+		Fmi2CombinedStep.Reply reply = new Fmi2CombinedStep.Reply();
+		reply.status = CrescendoFmu.error;
+
+		Fmi2CombinedStep.Reply parsed = Fmi2CombinedStep.Reply.parseFrom(reply.toByteArray());
+		Assert.assertEquals(Fmi2StatusReply.Status.Error, parsed.status.getStatus());
+		Assert.assertNull(parsed.doStepStatus);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+	@Test
+	public void testBuckets()
+	{
+		long[] values = { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789,
+				Long.MAX_VALUE };
+		for (long value : values)
+		{
+			int index = LatencyHistogram.index(value);
+			Assert.assertTrue(LatencyHistogram.lowestValue(index) <= value);
+			if (value < Long.MAX_VALUE)
+			{
+				Assert.assertTrue(LatencyHistogram.lowestValue(index + 1) > value);
+			}
+		}
+	}
+
+	@Test
+	public void testQuantiles()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++)
+		{
+			histogram.record(i * 1000);
+		}
+
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(50500, histogram.getMean(), 0);
+		Assert.assertEquals(100000, histogram.getMax());
+		Assert.assertEquals(100000, histogram.getValueAtQuantile(1));
+
+		// within the precision of a bucket
+		long median = histogram.getValueAtQuantile(0.5);
+		Assert.assertTrue(median >= 50000 && median < 50000 * 1.07);
+
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getValueAtQuantile(0.5));
+	}
+}
@@ -23,7 +23,9 @@ package org.crescendo.fmi;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Vector;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
@@ -32,6 +34,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.overture.interpreter.runtime.ValueException;
+import org.overture.interpreter.values.BooleanValue;
+import org.overture.interpreter.values.Value;
 import org.w3c.dom.DOMException;
 import org.xml.sax.SAXException;
 
@@ -70,4 +74,108 @@ public class LinksTest
 
 		}
 	}
+
+	@Test
+	public void testBindingPlan()
+	{
+		Assert.assertArrayEquals(new int[] { 3 }, state.plan.inputs.refs);
+		Assert.assertEquals(ExtendedLinkInfo.Type.Real, state.plan.inputs.types[0]);
+
+		Assert.assertArrayEquals(new int[] { 4 }, state.plan.outputs.refs);
+		Assert.assertEquals(ExtendedLinkInfo.Type.Boolean, state.plan.outputs.types[0]);
+
+		Assert.assertArrayEquals(new int[] { 0, 1 }, state.plan.parameters.refs);
+		Assert.assertEquals(ExtendedLinkInfo.Type.Boolean, state.plan.types[4]);
+	}
+
+	@Test
+	public void testChangedInputsOnly() throws ValueException
+	{
+		Assert.assertEquals(1, state.collectInputsFromCache().size());
+		Assert.assertEquals(0, state.collectInputsFromCache().size());
+
+		state.reals[3] = 2.5;
+		List<NamedValue> inputs = state.collectInputsFromCache();
+		Assert.assertEquals(1, inputs.size());
+		Assert.assertEquals(3, inputs.get(0).id);
+
+		state.reals[3] = 2.5;
+		Assert.assertEquals(0, state.collectInputsFromCache().size());
+	}
+
+	@Test
+	public void testHasChangedInputs() throws ValueException
+	{
+		Assert.assertTrue("Never pushed", state.hasChangedInputs());
+		state.collectInputsFromCache();
+		Assert.assertFalse(state.hasChangedInputs());
+
+		// checking does not mark the input as pushed
+		state.reals[3] = 2.5;
+		Assert.assertTrue(state.hasChangedInputs());
+		Assert.assertTrue(state.hasChangedInputs());
+		Assert.assertEquals(1, state.collectInputsFromCache().size());
+		Assert.assertFalse(state.hasChangedInputs());
+	}
+
+	@Test
+	public void testReset() throws ValueException
+	{
+		state.reals[3] = 1.5;
+		state.strings[0] = "a";
+		state.collectInputsFromCache();
+
+		state.reset();
+		Assert.assertEquals(0, state.reals[3], 0);
+		Assert.assertEquals("", state.strings[0]);
+
+		// all inputs are pushed again after a reset
+		Assert.assertEquals(1, state.collectInputsFromCache().size());
+	}
+
+	@Test
+	public void testPendingParameters()
+	{
+		state.markParameterPending(1);
+		state.markParameterPending(0);
+		state.markParameterPending(1);
+		// an input is not a parameter
+		state.markParameterPending(3);
+
+		Assert.assertEquals(Arrays.asList("0", "1"), new Vector<String>(state.getPendingSetParameters().keySet()));
+
+		state.reset();
+		Assert.assertTrue(state.getPendingSetParameters().isEmpty());
+	}
+
+	@Test
+	public void testLazyOutputs() throws ValueException
+	{
+		Value[] outputs = new Value[state.plan.types.length];
+		outputs[4] = new BooleanValue(true);
+
+		state.markOutputsStale(outputs);
+		Assert.assertFalse(state.booleans[4]);
+
+		state.syncStaleOutput(4);
+		Assert.assertTrue(state.booleans[4]);
+
+		// only stale outputs are read
+		outputs[4] = new BooleanValue(false);
+		state.syncStaleOutput(4);
+		Assert.assertTrue(state.booleans[4]);
+
+		state.syncOutputsToCache(outputs);
+		Assert.assertFalse(state.booleans[4]);
+	}
+
+	@Test
+	public void testArraySizes()
+	{
+		Assert.assertEquals(4, state.reals.length);
+		Assert.assertEquals(5, state.booleans.length);
+		Assert.assertEquals(1, state.integers.length);
+		Assert.assertEquals(1, state.strings.length);
+		Assert.assertEquals("", state.strings[0]);
+	}
 }
@@ -0,0 +1,116 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedStateRegionTest
+{
+	StateCache state = null;
+	File file = null;
+	MappedStateRegion region = null;
+
+	@Before
+	public void setup() throws IOException
+	{
+		state = new StateCache(new File("src/test/resources/modelDescription.xml".replace('/', File.separatorChar)));
+		file = File.createTempFile("crescendo-test-", ".state");
+		region = MappedStateRegion.create(file, state);
+	}
+
+	@After
+	public void cleanup()
+	{
+		region.close();
+	}
+
+	/**
+	 * @return a second mapping of the region, as the native wrapper would see it
+	 */
+	private MappedByteBuffer map() throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return buffer;
+		}
+	}
+
+	@Test
+	public void testLayout() throws IOException
+	{
+		state.reals[1] = 2.5;
+		state.integers[0] = 7;
+		region.publish(state);
+
+		MappedByteBuffer buffer = map();
+		Assert.assertEquals(MappedStateRegion.MAGIC, buffer.getInt(0));
+		Assert.assertEquals(MappedStateRegion.VERSION, buffer.getInt(4));
+		Assert.assertEquals(4, buffer.getLong(MappedStateRegion.SEQUENCE));
+		Assert.assertEquals(state.reals.length, buffer.getInt(16));
+		Assert.assertEquals(state.integers.length, buffer.getInt(20));
+		Assert.assertEquals(state.booleans.length, buffer.getInt(24));
+
+		Assert.assertEquals(2.5, buffer.getDouble(MappedStateRegion.HEADER_SIZE + 8), 0);
+		Assert.assertEquals(7, buffer.getInt(MappedStateRegion.HEADER_SIZE + 8 * state.reals.length));
+	}
+
+	@Test
+	public void testLoad() throws IOException
+	{
+		MappedByteBuffer buffer = map();
+		long sequence = buffer.getLong(MappedStateRegion.SEQUENCE);
+		buffer.putLong(MappedStateRegion.SEQUENCE, sequence + 1);
+		buffer.putDouble(MappedStateRegion.HEADER_SIZE + 8 * 3, -1.25);
+		buffer.put(MappedStateRegion.HEADER_SIZE + 8 * state.reals.length + 4
+				* state.integers.length, (byte) 1);
+		buffer.putLong(MappedStateRegion.SEQUENCE, sequence + 2);
+
+		region.load(state);
+
+		Assert.assertEquals(-1.25, state.reals[3], 0);
+		Assert.assertTrue(state.booleans[0]);
+		Assert.assertEquals(0, state.reals[1], 0);
+	}
+
+	@Test
+	public void testLoadWithoutWrite() throws IOException
+	{
+		// a value changed without a sequence update is not a write of the wrapper
+		MappedByteBuffer buffer = map();
+		buffer.putDouble(MappedStateRegion.HEADER_SIZE + 8 * 3, -1.25);
+
+		region.load(state);
+		Assert.assertEquals(0, state.reals[3], 0);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelSnapshotTest
+{
+	private static File source(File dir, String name, String content)
+			throws IOException
+	{
+		File file = new File(dir, name);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+
+	@Test
+	public void testCheckHeader() throws IOException
+	{
+		File dir = Files.createTempDirectory("snapshot-test").toFile();
+		File world = source(dir, "World.vdmrt", "class World end World");
+		File io = source(dir, "lib/IO.vdmrt", "class IO end IO");
+
+		Map<String, File> sources = ModelSnapshot.getSourcePaths(dir, Arrays.asList(io, world));
+		Assert.assertEquals(Arrays.asList("World.vdmrt", "lib/IO.vdmrt"), Arrays.asList(sources.keySet().toArray()));
+
+		Properties header = ModelSnapshot.createHeader(sources);
+		Assert.assertNull(ModelSnapshot.checkHeader(header, sources));
+
+		source(dir, "World.vdmrt", "class World end World\n");
+		Assert.assertNotNull("Changed sources", ModelSnapshot.checkHeader(header, sources));
+
+		header = ModelSnapshot.createHeader(sources);
+		header.setProperty(ModelSnapshot.KEY_FORMAT, "0");
+		Assert.assertNotNull("Other format", ModelSnapshot.checkHeader(header, sources));
+
+		// an exporter that cannot tell its AST version may have serialized another AST
+		header = ModelSnapshot.createHeader(sources);
+		header.setProperty(ModelSnapshot.KEY_AST, ModelSnapshot.UNKNOWN_VERSION);
+		Assert.assertNotNull("Unknown AST version", ModelSnapshot.checkHeader(header, sources));
+	}
+
+	@Test
+	public void testAstVersion()
+	{
+		// the AST jar on the test class path is a Maven build, it has a version even without a manifest entry
+		Assert.assertNotNull(ModelSnapshot.getAstVersion());
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProcessPoolTest
+{
+	private static File jar(File dir, String name, String content)
+			throws IOException
+	{
+		File file = new File(dir, name);
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file)))
+		{
+			out.putNextEntry(new ZipEntry("a.txt"));
+			out.write(content.getBytes("UTF-8"));
+			out.closeEntry();
+		}
+		return file;
+	}
+
+	@Test
+	public void testClassPathId() throws IOException
+	{
+		File dir = Files.createTempDirectory("pool-test").toFile();
+		File first = new File(dir, "first");
+		File second = new File(dir, "second");
+		first.mkdirs();
+		second.mkdirs();
+
+		String a = jar(first, "interpreter.jar", "one").getPath();
+		String b = jar(second, "interpreter.jar", "one").getPath();
+		String c = jar(dir, "interpreter.jar", "two").getPath();
+
+		// the same archives extracted to another folder share the pool, another build does not
+		Assert.assertEquals(ProcessPool.getClassPathId(a), ProcessPool.getClassPathId(b));
+		Assert.assertFalse(ProcessPool.getClassPathId(a).equals(ProcessPool.getClassPathId(c)));
+	}
+
+	@Test
+	public void testCopyClassPath() throws IOException
+	{
+		File dir = Files.createTempDirectory("pool-test").toFile();
+		String classPath = jar(dir, "interpreter.jar", "one").getPath()
+				+ File.pathSeparator + dir.getPath();
+
+		File pool = new File(dir, "pool");
+		String copy = ProcessPool.copyClassPath(classPath, pool);
+		String[] entries = copy.split(File.pathSeparator);
+
+		Assert.assertEquals(2, entries.length);
+		Assert.assertEquals(new File(pool, "0-interpreter.jar").getAbsolutePath(), entries[0]);
+		Assert.assertTrue(new File(entries[0]).isFile());
+		Assert.assertEquals(dir.getAbsolutePath(), entries[1]);
+	}
+
+	@Test
+	public void testForwardedOptions()
+	{
+		Assert.assertTrue(ProcessPool.isForwarded("-Xmx1g"));
+		Assert.assertTrue(ProcessPool.isForwarded("-Dcrescendo.fmi.asyncStep=true"));
+		Assert.assertFalse(ProcessPool.isForwarded("-XX:StartFlightRecording=filename=interpreter.jfr"));
+		Assert.assertFalse(ProcessPool.isForwarded("-agentlib:jdwp=transport=dt_socket"));
+		Assert.assertFalse(ProcessPool.isForwarded("-XX:SharedArchiveFile=interpreter.jsa"));
+	}
+}
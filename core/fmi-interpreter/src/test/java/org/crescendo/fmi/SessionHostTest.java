@@ -0,0 +1,73 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionHostTest
+{
+	@Test
+	public void testServeToken() throws Exception
+	{
+		Assert.assertEquals("key", SessionHost.parseServe("SERVE secret key", "secret"));
+		Assert.assertNull(SessionHost.parseServe("SERVE other key", "secret"));
+		Assert.assertNull(SessionHost.parseServe("SERVE key", "secret"));
+		Assert.assertNull(SessionHost.parseServe(null, "secret"));
+
+		Assert.assertFalse(SessionHost.isValidToken(null));
+		Assert.assertFalse(SessionHost.isValidToken("a b"));
+		Assert.assertTrue(SessionHost.isValidToken("secret"));
+	}
+
+	@Test
+	public void testLoaderCollected() throws Exception
+	{
+		WeakReference<ClassLoader> loader = runSession();
+
+		for (int i = 0; i < 50 && loader.get() != null; i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+		}
+		Assert.assertNull("The session loader is still reachable", loader.get());
+	}
+
+	private static WeakReference<ClassLoader> runSession() throws Exception
+	{
+		URL classes = SessionProbe.class.getProtectionDomain().getCodeSource().getLocation();
+		SessionClassLoader loader = new SessionClassLoader(new URL[] { classes }, SessionHostTest.class.getClassLoader());
+
+		Thread thread = (Thread) loader.invoke(SessionProbe.class.getName(), "start", new Class<?>[0]);
+		Assert.assertSame(loader, thread.getContextClassLoader());
+		Assert.assertNotSame(SessionProbe.class, loader.loadClass(SessionProbe.class.getName()));
+		Assert.assertTrue(thread.isAlive());
+
+		loader.shutdown();
+		Assert.assertFalse(thread.isAlive());
+
+		return new WeakReference<ClassLoader>(loader);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+/**
+ * Stands in for a session in {@link SessionHostTest}. It is loaded by a {@link SessionClassLoader} and starts a
+ * thread like the interpreter does
+ */
+public class SessionProbe
+{
+	static Thread thread;
+
+	public static Thread start()
+	{
+		thread = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(Long.MAX_VALUE);
+				} catch (InterruptedException e)
+				{
+				}
+			}
+		}, "Session probe");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+}
@@ -23,6 +23,7 @@ package org.crescendo.fmi;
 
 import java.io.File;
 
+import org.destecs.protocol.exceptions.RemoteSimulationException;
 import org.intocps.java.fmi.shm.SharedMemory;
 import org.intocps.java.fmi.shm.SharedMemoryServer;
 import org.junit.Assert;
@@ -114,6 +115,80 @@ public class SimulationTest
 
 	}
 
+	@Test
+	public void testResetParameters()
+	{
+		CrescendoFmu fmu = new CrescendoFmu("test-reset-parameters")
+		{
+
+			@Override
+			public void close()
+			{
+
+			}
+		};
+
+		String resourcePath = new File(".").toURI().resolve("src/test/resources/var-transfer-in-out-test/").toString();
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.Instantiate(Fmi2InstantiateRequest.newBuilder().setFmuResourceLocation(resourcePath).build()).getStatus());
+
+		final int p2_s = 11;
+		final int p2_out = 10;
+
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.SetString(Fmi2SetStringRequest.newBuilder().addValueReference(p2_s).addValues("first run").build()).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.EnterInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.ExitInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0).setCommunicationStepSize(4).build()).getStatus());
+		Assert.assertEquals("first run", fmu.state.strings[p2_out]);
+
+		// the second run does not set the parameter, so it must start from the default again
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.Reset(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.EnterInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.ExitInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0).setCommunicationStepSize(4).build()).getStatus());
+		Assert.assertEquals("p2-default", fmu.state.strings[p2_out]);
+	}
+
+	@Test
+	public void testResetStopsRun()
+	{
+		final int[] stopped = { 0 };
+		CrescendoFmu fmu = new CrescendoFmu("test-reset-stops-run")
+		{
+
+			@Override
+			void stopModel() throws RemoteSimulationException
+			{
+				stopped[0]++;
+				super.stopModel();
+			}
+
+			@Override
+			public void close()
+			{
+
+			}
+		};
+
+		String resourcePath = new File(".").toURI().resolve("src/test/resources/var-transfer-in-out-test/").toString();
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.Instantiate(Fmi2InstantiateRequest.newBuilder().setFmuResourceLocation(resourcePath).build()).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.EnterInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.ExitInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0).setCommunicationStepSize(4).build()).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(4).setCommunicationStepSize(4).build()).getStatus());
+
+		// the run of the first initialization is stopped before the model is reloaded
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.Reset(empty).getStatus());
+		Assert.assertEquals(1, stopped[0]);
+
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.EnterInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.ExitInitializationMode(empty).getStatus());
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0).setCommunicationStepSize(4).build()).getStatus());
+		Assert.assertEquals(1, stopped[0]);
+
+		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.Terminate(empty).getStatus());
+		Assert.assertEquals(2, stopped[0]);
+	}
+
 	@Test
 	public void testInitError()
 	{
@@ -188,6 +263,10 @@ public class SimulationTest
 		double curTime = 0;
 		double maxStepSize = fmu.GetMaxStepSize(empty).getMaxStepSize();
 		System.out.println("Cur time: " + curTime + " - maxStepSize: " + maxStepSize);
+		// the query only reads the scheduler, it does not run the model
+		Assert.assertTrue("getMaxStepSize before the first step is not positive", maxStepSize > 0);
+		Assert.assertEquals(0, fmu.time, 0);
+		maxStepSize = Math.min(maxStepSize, 0.01);
 		Assert.assertEquals(Fmi2StatusReply.Status.Ok, fmu.DoStep(Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0).setCommunicationStepSize(maxStepSize).build()).getStatus());
 		curTime = maxStepSize;
 
@@ -0,0 +1,262 @@
+/*
+ * #%~
+ * Fmi interface for the Crescendo Interpreter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.crescendo.fmi;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Future;
+
+import org.crescendo.fmi.transport.Call;
+import org.crescendo.fmi.transport.RemoteConnection;
+import org.crescendo.fmi.transport.RemoteServiceProxy;
+import org.crescendo.fmi.transport.SocketTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lausdahl.examples.Service.Fmi2DoStepRequest;
+import com.lausdahl.examples.Service.Fmi2Empty;
+import com.lausdahl.examples.Service.Fmi2GetRealReply;
+import com.lausdahl.examples.Service.Fmi2GetRequest;
+import com.lausdahl.examples.Service.Fmi2SetRealRequest;
+import com.lausdahl.examples.Service.Fmi2StatusReply;
+
+public class SocketTransportTest
+{
+	CrescendoFmu fmu = null;
+	SocketTransport transport = null;
+
+	@Before
+	public void setup() throws IOException
+	{
+		fmu = new CrescendoFmu("socket-transport-test")
+		{
+
+			@Override
+			public void close()
+			{
+			}
+		};
+		fmu.state = new StateCache(new File("src/test/resources/modelDescription.xml".replace('/', File.separatorChar)));
+		fmu.protocolState = CrescendoFmu.CrescendoStateType.Instantiated;
+
+		transport = new SocketTransport(fmu.sessionName, fmu, InetAddress.getLoopbackAddress(), 0);
+		transport.open();
+	}
+
+	@After
+	public void cleanup()
+	{
+		transport.close();
+	}
+
+	private void testPipelined(boolean deflate) throws IOException
+	{
+		RemoteConnection connection = new RemoteConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), transport.getPort()), deflate);
+		try
+		{
+			Fmi2SetRealRequest set = Fmi2SetRealRequest.newBuilder().addValueReference(1).addValues(2.5).build();
+			Fmi2GetRequest get = Fmi2GetRequest.newBuilder().addValueReference(1).build();
+
+			// the set is sent in the frame of the first get, the second frame goes out before the first is answered
+			Future<byte[]> setReply = connection.submit(Call.SetReal, set.toByteArray());
+			Future<byte[]> firstGet = connection.submit(Call.GetReal, get.toByteArray());
+			connection.flush();
+			Future<byte[]> secondGet = connection.submit(Call.GetReal, get.toByteArray());
+			connection.flush();
+
+			Assert.assertEquals(Fmi2StatusReply.Status.Ok, Fmi2StatusReply.parseFrom(RemoteConnection.get(setReply)).getStatus());
+			Assert.assertEquals(2.5, Fmi2GetRealReply.parseFrom(RemoteConnection.get(firstGet)).getValues(0), 0);
+			Assert.assertEquals(2.5, Fmi2GetRealReply.parseFrom(RemoteConnection.get(secondGet)).getValues(0), 0);
+		} finally
+		{
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testPipelined() throws IOException
+	{
+		testPipelined(false);
+	}
+
+	@Test
+	public void testDeflated() throws IOException
+	{
+		testPipelined(true);
+	}
+
+	@Test
+	public void testBulk() throws IOException
+	{
+		RemoteConnection connection = new RemoteConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), transport.getPort()), false);
+		try
+		{
+			ByteBuffer set = ByteBuffer.allocate(4 + 4 + 8).order(ByteOrder.LITTLE_ENDIAN);
+			set.putInt(1).putInt(1).putDouble(2.5);
+			Assert.assertEquals(Fmi2StatusReply.Status.Ok, Fmi2StatusReply.parseFrom(connection.call(Call.SetRealBulk, set.array())).getStatus());
+
+			ByteBuffer get = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			get.putInt(1);
+			byte[] values = connection.call(Call.GetRealBulk, get.array());
+			Assert.assertEquals(2.5, ByteBuffer.wrap(values).order(ByteOrder.LITTLE_ENDIAN).getDouble(), 0);
+
+			// an invalid reference gives no reply
+			get.putInt(0, -1);
+			Assert.assertNull(connection.call(Call.GetRealBulk, get.array()));
+		} finally
+		{
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testOversizedFrame() throws IOException
+	{
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), transport.getPort()))
+		{
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(1);
+			out.writeInt(Call.GetRealBulk.id);
+			out.writeInt(Integer.MAX_VALUE);
+			out.flush();
+
+			// the connection is dropped without buffering the message
+			Assert.assertEquals(-1, socket.getInputStream().read());
+		}
+
+		RemoteConnection connection = new RemoteConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), transport.getPort()), false);
+		try
+		{
+			Assert.assertEquals(0, connection.call(Call.GetRealBulk, new byte[0]).length);
+		} finally
+		{
+			connection.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTokenRequired() throws IOException
+	{
+		new SocketTransport(fmu.sessionName, fmu, InetAddress.getByName("0.0.0.0"), 0);
+	}
+
+	@Test
+	public void testToken() throws IOException
+	{
+		SocketTransport secured = new SocketTransport(fmu.sessionName + "-secured", fmu, InetAddress.getLoopbackAddress(), 0, "secret");
+		secured.open();
+		try
+		{
+			InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), secured.getPort());
+
+			RemoteConnection rejected = new RemoteConnection(address, false, "guess");
+			try
+			{
+				rejected.call(Call.GetRealBulk, new byte[0]);
+				Assert.fail("A connection with an invalid token was served");
+			} catch (IOException e)
+			{
+				// closed by the transport
+			} finally
+			{
+				rejected.close();
+			}
+
+			RemoteConnection connection = new RemoteConnection(address, false, "secret");
+			try
+			{
+				Assert.assertEquals(0, connection.call(Call.GetRealBulk, new byte[0]).length);
+			} finally
+			{
+				connection.close();
+			}
+		} finally
+		{
+			secured.close();
+		}
+	}
+
+	@Test
+	public void testProxyBulk() throws IOException
+	{
+		RemoteConnection connection = new RemoteConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), transport.getPort()), false);
+		RemoteServiceProxy proxy = new RemoteServiceProxy(connection)
+		{
+
+			@Override
+			public void close()
+			{
+			}
+		};
+		try
+		{
+			// the proxy forwards the Get and Set calls of the native wrapper as bulk calls
+			Assert.assertEquals(Fmi2StatusReply.Status.Ok, proxy.SetReal(Fmi2SetRealRequest.newBuilder().addValueReference(1).addValues(2.5).build()).getStatus());
+			Assert.assertEquals(2.5, fmu.state.reals[1], 0);
+			Assert.assertEquals(2.5, proxy.GetReal(Fmi2GetRequest.newBuilder().addValueReference(1).build()).getValues(0), 0);
+
+			Assert.assertNull(proxy.GetReal(Fmi2GetRequest.newBuilder().addValueReference(fmu.state.reals.length).build()));
+		} finally
+		{
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testCancelStep() throws IOException
+	{
+		RemoteConnection connection = new RemoteConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), transport.getPort()), false);
+		try
+		{
+			// no step is pending
+			byte[] reply = connection.call(Call.CancelStep, Fmi2Empty.newBuilder().build().toByteArray());
+			Assert.assertEquals(Fmi2StatusReply.Status.Error, Fmi2StatusReply.parseFrom(reply).getStatus());
+
+			// a cancelled step leaves the interpreter at an unknown point, it is not stepped on
+			fmu.protocolState = CrescendoFmu.CrescendoStateType.StepCancelled;
+			Fmi2DoStepRequest step = Fmi2DoStepRequest.newBuilder().setCurrentCommunicationPoint(0).setCommunicationStepSize(1).build();
+			reply = connection.call(Call.DoStep, step.toByteArray());
+			Assert.assertEquals(Fmi2StatusReply.Status.Error, Fmi2StatusReply.parseFrom(reply).getStatus());
+		} finally
+		{
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testPortFile()
+	{
+		File portFile = SocketTransport.getPortFile(fmu.sessionName);
+		Assert.assertTrue(portFile.isFile());
+
+		transport.close();
+		Assert.assertFalse(portFile.exists());
+	}
+}
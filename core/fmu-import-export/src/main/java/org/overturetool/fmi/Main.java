@@ -50,6 +50,7 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullOutputStream;
+import org.crescendo.fmi.ModelSnapshot;
 import org.overture.ast.definitions.SClassDefinition;
 import org.overture.ast.lex.Dialect;
 import org.overture.config.Release;
@@ -60,6 +61,7 @@ import org.overture.typechecker.util.TypeCheckerUtil;
 import org.overture.typechecker.util.TypeCheckerUtil.TypeCheckResult;
 import org.overturetool.fmi.export.EclipseLinkedFilesProject;
 import org.overturetool.fmi.export.FmuExporter;
+import org.overturetool.fmi.export.ToolLaunchConfig;
 import org.overturetool.fmi.export.FmuSourceCodeExporter;
 import org.overturetool.fmi.imports.ImportModelDescriptionProcesser;
 import org.xml.sax.SAXException;
@@ -82,6 +84,13 @@ public class Main
 	final static Option versionOpt = Option.builder("V").longOpt("version").desc("Show version").build();
 	final static Option tracabilityEnableOpt = Option.builder("t").longOpt("tracability").desc("Enable Tracability").build();
 	final static Option followEclipseLinks = Option.builder("follow").longOpt("follow-eclipse-links").desc("Follow eclipse links in the .project file").build();
+	final static Option sharedHostOpt = Option.builder("host").longOpt("shared-host").hasArg(true).argName("port").desc("Run all instances of the tool FMU in one JVM controlled through the loopback port").build();
+	final static Option poolOpt = Option.builder("pool").longOpt("process-pool").hasArg(true).argName("port").desc("Hand instances of the tool FMU to a pool of pre-started JVMs controlled through the loopback port").build();
+	final static Option cdsOpt = Option.builder("cds").longOpt("class-data-sharing").desc("Train the class list of a class data sharing archive on the exported model, the tool FMU dumps the archive on its first launch and uses it from then on").build();
+	final static Option remoteOpt = Option.builder("remote").hasArg(true).argName("host:port").desc("Forward the calls of the tool FMU to an instance served on another host with the socket transport").build();
+	final static Option remoteTokenOpt = Option.builder("remotetoken").hasArg(true).argName("token").desc("The token the remote instance was started with, required when it is not bound to the loopback address").build();
+	final static Option deflateOpt = Option.builder("deflate").desc("Deflate the calls forwarded to a remote instance").build();
+	final static Option flightRecordingOpt = Option.builder("jfr").longOpt("flight-recording").desc("Start a Java Flight Recorder recording with the tool FMU, dumped to interpreter-<pid>.jfr on exit. Needs JDK 11 or later or OpenJDK 8u262 or later").build();
 	final static Option toolDebugOpt = Option.builder("debug").longOpt("Tool debug").hasArg(true).argName("port=y/n for auto suspend").desc("Generate tool debug config. Connect with 'localhost' port '4000'").build();
 
 	public static boolean useExitCode = true;
@@ -123,6 +132,13 @@ public class Main
 		options.addOption(exportOpt);
 		options.addOption(importModelDescriptionOpt);
 		options.addOption(toolDebugOpt);
+		options.addOption(sharedHostOpt);
+		options.addOption(poolOpt);
+		options.addOption(cdsOpt);
+		options.addOption(remoteOpt);
+		options.addOption(remoteTokenOpt);
+		options.addOption(deflateOpt);
+		options.addOption(flightRecordingOpt);
 		options.addOption(followEclipseLinks);
 		options.addOption(upgradeOpt);
 
@@ -275,6 +291,66 @@ public class Main
 				project.enableOutputDebug(cmd.getOptionValue(toolDebugOpt.getOpt()));
 			}
 
+			if (!exportToolFmu && cmd.hasOption(sharedHostOpt.getOpt()))
+			{
+				String msg = "Shared host can only be used with the tool export option.";
+				exitError(msg);
+			}
+
+			if (!exportToolFmu && cmd.hasOption(poolOpt.getOpt()))
+			{
+				String msg = "Process pool can only be used with the tool export option.";
+				exitError(msg);
+			}
+
+			if (!exportToolFmu && cmd.hasOption(cdsOpt.getOpt()))
+			{
+				String msg = "Class data sharing can only be used with the tool export option.";
+				exitError(msg);
+			}
+
+			if (!exportToolFmu && cmd.hasOption(remoteOpt.getOpt()))
+			{
+				String msg = "Remote instances can only be used with the tool export option.";
+				exitError(msg);
+			}
+
+			if (!cmd.hasOption(remoteOpt.getOpt()) && cmd.hasOption(remoteTokenOpt.getOpt()))
+			{
+				String msg = "The remote token can only be used with the remote option.";
+				exitError(msg);
+			}
+
+			if (!cmd.hasOption(remoteOpt.getOpt()) && cmd.hasOption(deflateOpt.getOpt()))
+			{
+				String msg = "Deflate can only be used with the remote option.";
+				exitError(msg);
+			}
+
+			if (!exportToolFmu && cmd.hasOption(flightRecordingOpt.getOpt()))
+			{
+				String msg = "Flight recording can only be used with the tool export option.";
+				exitError(msg);
+			}
+
+			ToolLaunchConfig launchConfig = new ToolLaunchConfig();
+			if (cmd.hasOption(sharedHostOpt.getOpt()))
+			{
+				launchConfig.setSharedHostPort(Integer.parseInt(cmd.getOptionValue(sharedHostOpt.getOpt())));
+			}
+			if (cmd.hasOption(poolOpt.getOpt()))
+			{
+				launchConfig.setPoolPort(Integer.parseInt(cmd.getOptionValue(poolOpt.getOpt())));
+			}
+			launchConfig.setTrainCdsArchive(cmd.hasOption(cdsOpt.getOpt()));
+			launchConfig.setFlightRecording(cmd.hasOption(flightRecordingOpt.getOpt()));
+			if (cmd.hasOption(remoteOpt.getOpt()))
+			{
+				launchConfig.setRemoteAddress(cmd.getOptionValue(remoteOpt.getOpt()));
+				launchConfig.setRemoteToken(cmd.getOptionValue(remoteTokenOpt.getOpt()));
+				launchConfig.setDeflate(cmd.hasOption(deflateOpt.getOpt()));
+			}
+
 			PrintStream out = verbose ? System.out
 					: new PrintStream(new NullOutputStream());
 
@@ -285,7 +361,7 @@ public class Main
 
 				if (exportToolFmu)
 				{
-					fmuFile = new FmuExporter().exportFmu(project, projectName, out, System.err, force);
+					fmuFile = new FmuExporter().setLaunchConfig(launchConfig).exportFmu(project, projectName, out, System.err, force);
 				} else if (exportSourceFmu)
 				{
 					fmuFile = new FmuSourceCodeExporter().exportFmu(project, projectName, out, System.err, force);
@@ -396,7 +472,8 @@ public class Main
 
 			for (File resFile : resourceFiles)
 			{
-				if(resFile.getName().startsWith("fmi-interpreter") || resFile.getName().equals("config.txt"))
+				if(resFile.getName().startsWith("fmi-interpreter") || resFile.getName().equals("config.txt")
+						|| resFile.getName().equals(ModelSnapshot.FILE_NAME) || resFile.getName().equals(ModelSnapshot.HEADER_NAME))
 					continue;
 				String relativePath = modelPath.getParentFile().toURI().relativize(resFile.toURI()).getPath();
 				File fout = new File(modelPath, relativePath);
@@ -22,6 +22,7 @@
 package org.overturetool.fmi.export;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -32,8 +33,10 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import org.apache.commons.io.FileUtils;
+import org.crescendo.fmi.ModelSnapshot;
 import org.intocps.java.fmi.shm.SharedMemory;
 import org.overture.ast.analysis.AnalysisException;
 import org.overture.ast.definitions.AInstanceVariableDefinition;
@@ -55,6 +58,14 @@ public class FmuExporter
 {
 	public static final String[] RESOURCE_EXTENSIONS = new String[] { "csv" ,"jar","class","properties"};
 
+	private ToolLaunchConfig launchConfig = new ToolLaunchConfig();
+
+	public FmuExporter setLaunchConfig(ToolLaunchConfig launchConfig)
+	{
+		this.launchConfig = launchConfig;
+		return this;
+	}
+
 	private boolean HWInterfaceHasStatics(IProject project)
 	{
 		for (SClassDefinition c : project.getClasses())
@@ -261,6 +272,58 @@ public class FmuExporter
 	}
 
 
+	/**
+	 * @return the path of a spec file relative to the model folder of the FMU
+	 */
+	private static String getModelPath(IProject project, File unit)
+	{
+		String path =null;
+		if(unit.getAbsolutePath().startsWith(project.getSourceRootPath().getAbsolutePath())){
+			path=	unit.getAbsolutePath().substring(project.getSourceRootPath().getAbsolutePath().length() + 1);
+		}else
+		{
+			int index = unit.getAbsolutePath().indexOf(File.separatorChar);
+			path = unit.getAbsolutePath().substring(index+1);
+		}
+		return path;
+	}
+
+	/**
+	 * Writes the type checked model next to the sources so the interpreter can skip parsing and type checking, see the
+	 * ModelSnapshot of the interpreter. A snapshot that cannot be written is only reported, the interpreter then loads
+	 * the sources.
+	 */
+	protected void writeModelSnapshot(IProject project, String resourcesFolder,
+			PrintStream err)
+	{
+		try
+		{
+			ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+			ModelSnapshot.write(project.getClasses(), snapshot);
+
+			Map<String, File> sources = new TreeMap<String, File>();
+			for (File unit : project.getSpecFiles())
+			{
+				if (unit.getName().endsWith(".vdmrt"))
+				{
+					sources.put(getModelPath(project, unit).replace(File.separatorChar, '/'), unit);
+				}
+			}
+
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			ModelSnapshot.createHeader(sources).store(header, "Type checked model snapshot");
+
+			project.createProjectTempRelativeFile(resourcesFolder + "/"
+					+ ModelSnapshot.FILE_NAME, new ByteArrayInputStream(snapshot.toByteArray()));
+			project.createProjectTempRelativeFile(resourcesFolder + "/"
+					+ ModelSnapshot.HEADER_NAME, new ByteArrayInputStream(header.toByteArray()));
+		} catch (IOException e)
+		{
+			err.println("Warning: unable to write the model snapshot, the model will be parsed at instantiation: "
+					+ e.getMessage());
+		}
+	}
+
 	protected void copyResourceFiles(IProject project, String resourcesFolder,
 			String exts[]) throws IOException
 	{
@@ -273,6 +336,11 @@ public class FmuExporter
 
 		for (File resFile : resourceFiles)
 		{
+			if (ModelSnapshot.HEADER_NAME.equals(resFile.getName()))
+			{
+				// a stale header, the snapshot is written by the export
+				continue;
+			}
 			is = new FileInputStream(resFile);
 			project.createProjectTempRelativeFile(resourcesFolder + "/"
 					+ resFile.getName(), is);
@@ -295,34 +363,8 @@ public class FmuExporter
 		project.createProjectTempRelativeFile(resourcesFolder + "/"
 				+ interpreterJarName, is);
 
-		StringBuffer sb = new StringBuffer();
-		sb.append("false\n");
-		sb.append("java\n");
-		if (project.isOutputDebugEnabled())
-		{
-			// remote debug
-			sb.append("-Xdebug\n");
-			int port = 4000;
-			String austouspend = "n";
-			String[] configs = project.getToolDebugConfig().split("=");
-			if (configs.length > 1)
-			{
-				port = Integer.parseInt(configs[0]);
-				austouspend = "y".equals(("" + configs[1]).toLowerCase()) ? "y"
-						: "n";
-			}
-			sb.append(String.format("-Xrunjdwp:server=y,transport=dt_socket,address=%d,suspend=%s\n", port, austouspend));
-		}
-
-		sb.append("-cp\n");
-		sb.append("*\n");
-		sb.append("org.crescendo.fmi.ShmServer\n");
-		sb.append("-p");
-		byte[] bytes = sb.toString().getBytes("UTF-8");
+		byte[] bytes = info.modelDescriptionStringGenerator.getModelDescription().getBytes("UTF-8");
 		InputStream source = new ByteArrayInputStream(bytes);
-		project.createProjectTempRelativeFile(resourcesFolder + "/config.txt", source);
-		bytes = info.modelDescriptionStringGenerator.getModelDescription().getBytes("UTF-8");
-		source = new ByteArrayInputStream(bytes);
 		project.createProjectTempRelativeFile(resourcesFolder
 				+ "/modelDescription.xml", source);
 
@@ -330,20 +372,12 @@ public class FmuExporter
 
 		for (File unit : project.getSpecFiles())
 		{
-			String path =null;
-			if(unit.getAbsolutePath().startsWith(project.getSourceRootPath().getAbsolutePath())){
-				path=	unit.getAbsolutePath().substring(project.getSourceRootPath().getAbsolutePath().length() + 1);
-			}else
-			{
-				int index = unit.getAbsolutePath().indexOf(File.separatorChar);
-				path = unit.getAbsolutePath().substring(index+1);
-			}
-			
-			
 			project.createProjectTempRelativeFile(resourcesFolder + "/model/"
-					+ path, FileUtils.openInputStream(unit));
+					+ getModelPath(project, unit), FileUtils.openInputStream(unit));
 		}
 
+		writeModelSnapshot(project, resourcesFolder, err);
+
 		// native
 
 		String binaries = "binaries";
@@ -383,5 +417,54 @@ public class FmuExporter
 		}
 
 		copyResourceFiles(project,resourcesFolder,RESOURCE_EXTENSIONS);
+
+		boolean cdsArchive = launchConfig.trainCdsArchive
+				&& launchConfig.trainCdsClassList(new File(project.getTempFolder(), resourcesFolder), out, err);
+
+		writeToolConfig(project, resourcesFolder, cdsArchive);
+	}
+
+	/**
+	 * Writes the config.txt read by the native wrapper to launch the interpreter
+	 */
+	protected void writeToolConfig(IProject project, String resourcesFolder,
+			boolean cdsArchive) throws IOException
+	{
+		StringBuffer sb = new StringBuffer();
+		sb.append("false\n");
+		sb.append("java\n");
+		if (project.isOutputDebugEnabled())
+		{
+			// remote debug
+			sb.append("-Xdebug\n");
+			int port = 4000;
+			String austouspend = "n";
+			String[] configs = project.getToolDebugConfig().split("=");
+			if (configs.length > 1)
+			{
+				port = Integer.parseInt(configs[0]);
+				austouspend = "y".equals(("" + configs[1]).toLowerCase()) ? "y"
+						: "n";
+			}
+			sb.append(String.format("-Xrunjdwp:server=y,transport=dt_socket,address=%d,suspend=%s\n", port, austouspend));
+		}
+
+		if (cdsArchive)
+		{
+			launchConfig.appendCdsOptions(sb);
+		}
+
+		sb.append("-cp\n");
+		sb.append("*\n");
+		sb.append("org.crescendo.fmi.ShmServer\n");
+		launchConfig.appendServerArguments(sb);
+		if (cdsArchive)
+		{
+			launchConfig.appendCdsArguments(sb);
+		}
+		sb.append("-p");
+		byte[] bytes = sb.toString().getBytes("UTF-8");
+		InputStream source = new ByteArrayInputStream(bytes);
+		project.createProjectTempRelativeFile(resourcesFolder + "/config.txt", source);
 	}
 }
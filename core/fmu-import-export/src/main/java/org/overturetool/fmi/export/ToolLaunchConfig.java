@@ -0,0 +1,283 @@
+/*
+ * #%~
+ * Fmu import exporter
+ * %%
+ * Copyright (C) 2015 - 2017 Overture
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #~%
+ */
+package org.overturetool.fmi.export;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for launching the interpreter of a tool FMU. The options are written to the config.txt read by the native
+ * wrapper.
+ */
+public class ToolLaunchConfig
+{
+	/**
+	 * loopback port of the shared interpreter host, see the ShmServer --host option. Zero or less starts a JVM per
+	 * instance
+	 */
+	int sharedHostPort = -1;
+
+	/**
+	 * the shared secret a server must present to the shared interpreter host or the pool, see the ShmServer --token
+	 * option. Generated per export, so only instances of the same FMU share a host or a pool
+	 */
+	final String token = new BigInteger(128, new SecureRandom()).toString(32);
+
+	/**
+	 * loopback port of the pool of pre-warmed interpreter JVMs, see the ShmServer --pool option. Zero or less disables
+	 * the pool
+	 */
+	int poolPort = -1;
+
+	/**
+	 * train the class list of a class data sharing archive on the exported model, the first launch of the interpreter
+	 * dumps the archive and later launches use it
+	 */
+	boolean trainCdsArchive = false;
+
+	/**
+	 * start a flight recording with the interpreter, see the ShmServer --jfr option. Each JVM dumps it to
+	 * {@value #FLIGHT_RECORDING} with its process id appended to the base name when it exits. It needs JDK 11 or later
+	 * or OpenJDK 8u262 or later, other JVMs run without a recording
+	 */
+	boolean flightRecording = false;
+
+	/**
+	 * host:port of an instance served on another host, see the ShmServer --remote option. The local JVM only forwards
+	 * the calls
+	 */
+	String remoteAddress = null;
+
+	/**
+	 * the token the remote instance was started with, see the ShmServer --token option. Null if it requires none
+	 */
+	String remoteToken = null;
+
+	/**
+	 * deflate the frames sent to the remote instance
+	 */
+	boolean deflate = false;
+
+	static final String FLIGHT_RECORDING = "interpreter.jfr";
+
+	static final String CDS_ARCHIVE = "interpreter.jsa";
+	/**
+	 * the class list shipped with the FMU, named after the archive as the ShmServer --cds option expects
+	 */
+	static final String CDS_CLASS_LIST = "interpreter.classlist";
+	static final long CDS_TIMEOUT_SECONDS = 300;
+
+	public void setSharedHostPort(int sharedHostPort)
+	{
+		this.sharedHostPort = sharedHostPort;
+	}
+
+	public void setPoolPort(int poolPort)
+	{
+		this.poolPort = poolPort;
+	}
+
+	/**
+	 * Appends the ShmServer arguments. The native wrapper appends the shared memory key after the final -p, so the
+	 * arguments must come before it
+	 * 
+	 * @param sb
+	 *            the config being written
+	 */
+	void appendServerArguments(StringBuffer sb)
+	{
+		if (remoteAddress != null)
+		{
+			// the calls are forwarded before a host or pool is used, so the token is the one of the remote instance
+			if (remoteToken != null)
+			{
+				sb.append("--token\n");
+				sb.append(remoteToken + "\n");
+			}
+		} else if (sharedHostPort > 0 || poolPort > 0)
+		{
+			sb.append("--token\n");
+			sb.append(token + "\n");
+		}
+		if (sharedHostPort > 0)
+		{
+			sb.append("--host\n");
+			sb.append(sharedHostPort + "\n");
+		}
+		if (poolPort > 0)
+		{
+			sb.append("--pool\n");
+			sb.append(poolPort + "\n");
+		}
+		if (remoteAddress != null)
+		{
+			sb.append("--remote\n");
+			sb.append(remoteAddress + "\n");
+		}
+		if (deflate)
+		{
+			sb.append("--deflate\n");
+		}
+		if (flightRecording)
+		{
+			sb.append("--jfr\n");
+			sb.append(FLIGHT_RECORDING + "\n");
+		}
+	}
+
+	public void setRemoteAddress(String remoteAddress)
+	{
+		this.remoteAddress = remoteAddress;
+	}
+
+	public void setRemoteToken(String remoteToken)
+	{
+		this.remoteToken = remoteToken;
+	}
+
+	public void setDeflate(boolean deflate)
+	{
+		this.deflate = deflate;
+	}
+
+	public void setFlightRecording(boolean flightRecording)
+	{
+		this.flightRecording = flightRecording;
+	}
+
+	public void setTrainCdsArchive(boolean trainCdsArchive)
+	{
+		this.trainCdsArchive = trainCdsArchive;
+	}
+
+	/**
+	 * Appends the JVM options using the archive. The archive is dumped by the first launch of the FMU, see
+	 * {@link #appendCdsArguments(StringBuffer)}, so -Xshare:auto lets that launch and any JVM that cannot map the archive
+	 * start without it. SharedArchiveFile is a diagnostic option up to JDK 9 and needs the diagnostic options unlocked
+	 * 
+	 * @param sb
+	 *            the config being written
+	 */
+	void appendCdsOptions(StringBuffer sb)
+	{
+		sb.append("-XX:+UnlockDiagnosticVMOptions\n");
+		sb.append("-Xshare:auto\n");
+		sb.append("-XX:SharedArchiveFile=" + CDS_ARCHIVE + "\n");
+	}
+
+	/**
+	 * Appends the ShmServer arguments dumping the archive from the shipped class list. An archive only maps with the
+	 * class path and the JDK it is dumped with, so it is dumped at the extraction folder with the JDK running the FMU, see
+	 * the ShmServer --cds option
+	 * 
+	 * @param sb
+	 *            the config being written
+	 */
+	void appendCdsArguments(StringBuffer sb)
+	{
+		sb.append("--cds\n");
+		sb.append(CDS_ARCHIVE + "\n");
+	}
+
+	/**
+	 * Trains the class list of the archive by running the exported model with the JDK running the exporter. The class
+	 * list is shipped in the resources folder, the archive itself is dumped by the first launch of the FMU
+	 * 
+	 * @param resources
+	 *            the resources folder of the FMU being exported
+	 * @return true if the class list was created
+	 */
+	boolean trainCdsClassList(File resources, PrintStream out, PrintStream err)
+	{
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+		File classList = new File(resources, CDS_CLASS_LIST);
+
+		try
+		{
+			out.println("Training class data sharing class list ...");
+			run(Arrays.asList(java, "-Xshare:off", "-XX:DumpLoadedClassList="
+					+ CDS_CLASS_LIST, "-cp", "*", "org.crescendo.fmi.CdsTrainer", "."), resources, out);
+		} catch (IOException | InterruptedException e)
+		{
+			err.println("Warning: class data sharing training failed: "
+					+ e.getMessage());
+			classList.delete();
+		}
+
+		if (!classList.isFile())
+		{
+			err.println("Warning: no class data sharing class list created, the JVM running the export may not support it");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs a command printing its output. The output is drained by a separate thread so the timeout also applies to a
+	 * command that keeps writing
+	 */
+	private static void run(List<String> command, File dir,
+			final PrintStream out) throws IOException, InterruptedException
+	{
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(dir);
+		builder.redirectErrorStream(true);
+		final Process p = builder.start();
+
+		Thread drain = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream())))
+				{
+					String line;
+					while ((line = reader.readLine()) != null)
+					{
+						out.println(line);
+					}
+				} catch (IOException e)
+				{
+					// the process was destroyed
+				}
+			}
+		}, "cds-training-output");
+		drain.setDaemon(true);
+		drain.start();
+
+		if (!p.waitFor(CDS_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+		{
+			p.destroyForcibly();
+			throw new IOException("Timeout running: " + command);
+		}
+		drain.join(TimeUnit.SECONDS.toMillis(1));
+	}
+}
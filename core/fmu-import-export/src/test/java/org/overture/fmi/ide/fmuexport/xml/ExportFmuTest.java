@@ -23,9 +23,13 @@ package org.overture.fmi.ide.fmuexport.xml;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
 import java.util.Vector;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -42,6 +46,7 @@ import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.crescendo.fmi.ModelSnapshot;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -170,7 +175,8 @@ public class ExportFmuTest
 				"resources/model/lib/Fmi.vdmrt",
 				"resources/model/lib/IO.vdmrt", "resources/model/System.vdmrt",
 				"resources/model/ValveActuator.vdmrt",
-				"resources/model/World.vdmrt", "resources/modelDescription.xml"
+				"resources/model/World.vdmrt", "resources/modelDescription.xml",
+				"resources/model.lib", "resources/model.lib.properties"
 
 		};
 
@@ -180,6 +186,45 @@ public class ExportFmuTest
 		}
 	}
 
+	@Test
+	public void testExportModelSnapshot() throws AbortException, IOException
+	{
+		String output = "target/" + this.getClass().getSimpleName() + "/"
+				+ getCurrentClassAndMethodNames() + "/";
+
+		FileUtils.copyDirectory(new File("src/test/resources/model"), new File(output));
+
+		Main.main(new String[] { "-name", "wt2", "-export", "tool", "-root",
+				output, "-output", output, "-v" });
+
+		File extracted = new File(output, "extracted");
+		File resources = new File(extracted, "resources");
+		try (ZipFile zipFile = new ZipFile(new File(output + "/wt2.fmu")))
+		{
+			for (ZipEntry entry : Collections.list(zipFile.entries()))
+			{
+				if (entry.getName().startsWith("resources/")
+						&& !entry.isDirectory())
+				{
+					FileUtils.copyInputStreamToFile(zipFile.getInputStream(entry), new File(extracted, entry.getName()));
+				}
+			}
+		}
+
+		// the interpreter must accept the snapshot the exporter wrote
+		Properties header = new Properties();
+		try (InputStream in = new FileInputStream(new File(resources, ModelSnapshot.HEADER_NAME)))
+		{
+			header.load(in);
+		}
+		File sourceRoot = new File(resources, "model");
+		Collection<File> sources = FileUtils.listFiles(sourceRoot, new String[] { "vdmrt" }, true);
+		Assert.assertNull(ModelSnapshot.checkHeader(header, ModelSnapshot.getSourcePaths(sourceRoot, sources)));
+
+		FileUtils.write(new File(sourceRoot, "World.vdmrt"), "\n-- changed", true);
+		Assert.assertNotNull(ModelSnapshot.checkHeader(header, ModelSnapshot.getSourcePaths(sourceRoot, sources)));
+	}
+
 	@Test
 	public void testExportFmuNoName() throws AbortException, IOException,
 			InterruptedException, SAXException, ParserConfigurationException,